@@ -0,0 +1,523 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.weberbox.changelibs.library.internal.ChangeLogVersionIndex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Disk cache of the changelog files downloaded from an url.
+ * <p>
+ * The response is stored with its ETag and Last-Modified headers. The next download is a
+ * conditional request: on 304 Not Modified the cached copy is read, without downloading the
+ * file again. Without a connection, or when the server can't be reached, the cached copy is
+ * read too.
+ * <p>
+ * The files are stored in the cache dir of the app, so the system can delete them when the
+ * storage is low. The files are requested with gzip encoding and stored compressed.
+ * The requests go through a {@link ChangeLogTransport}, {@link HttpChangeLogTransport} by
+ * default.
+ * <p>
+ * With a delta fetch the request has the versionCode of the newest cached version, in a query
+ * parameter or in a header, and the server can answer with only the newer versions. They are
+ * merged into the cached copy by a {@link DeltaMerger}. The ETag and Last-Modified of a
+ * partial response are not stored, since they don't describe the merged file: the next
+ * request is a delta fetch again, and a server without newer versions answers 204 No Content.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class ChangeLogHttpCache {
+
+    private static final String TAG = "ChangeLogHttpCache";
+
+    private static final String DIRECTORY_NAME = "chglib_http_cache";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+
+    // Files are replaced by more parsers of the same url
+    private static final Object LOCK = new Object();
+
+    private final File directory;
+
+    private ChangeLogTransport transport = new HttpChangeLogTransport();
+
+    /**
+     * Delta fetch, disabled without a merger or without a parameter name
+     */
+    private DeltaMerger deltaMerger;
+    private String deltaQueryParameter;
+    private String deltaHeader;
+
+    //--------------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Create a cache in the cache dir of the app
+     *
+     * @param context current Context
+     */
+    public ChangeLogHttpCache(Context context) {
+        this(new File(context.getCacheDir(), DIRECTORY_NAME));
+    }
+
+    /**
+     * Create a cache in a directory
+     *
+     * @param directory directory of the cached files, created on the first download
+     */
+    public ChangeLogHttpCache(File directory) {
+        this.directory = directory;
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Open the changelog file of an url. The file is downloaded only if it has changed since
+     * the cached copy.
+     *
+     * @param url       url of the changelog file
+     * @param connected false to read only the cached copy
+     * @return the decompressed stream, or null without a connection and without a cached copy
+     * @throws IOException if the file can't be downloaded and there is no cached copy
+     */
+    public InputStream open(String url, boolean connected) throws IOException {
+        File body = getBodyFile(url);
+        if (!connected) {
+            return body.isFile() ? Util.decompress(new FileInputStream(body)) : null;
+        }
+
+        try {
+            fetch(url, body, true);
+        } catch (IOException e) {
+            if (!body.isFile()) throw e;
+            Log.w(TAG, "Changelog download failed, reading the cached copy", e);
+        }
+        return Util.decompress(new FileInputStream(body));
+    }
+
+    /**
+     * Check if the file of an url has changed since the cached copy, and download it if so.
+     * Call it on a background thread.
+     *
+     * @param url url of the changelog file
+     * @return true if a new copy was downloaded, false if the cached copy is still valid
+     * @throws IOException if the file can't be downloaded
+     */
+    public boolean revalidate(String url) throws IOException {
+        return fetch(url, getBodyFile(url), true);
+    }
+
+    /**
+     * @return true if a new copy was stored, false on 304 Not Modified
+     */
+    private boolean fetch(String url, File body, boolean conditional) throws IOException {
+        Properties meta = conditional && body.isFile() ? readMeta(url) : null;
+        // Only the versions newer than the cached copy are requested
+        int since = meta != null ? readNewestVersionCode(body)
+                : ChangeLogVersionIndex.NO_VERSION_CODE;
+        boolean delta = since != ChangeLogVersionIndex.NO_VERSION_CODE;
+
+        Map<String, String> headers = new HashMap<>();
+        // The body is stored as it is received, and decompressed while it is parsed
+        headers.put("Accept-Encoding", "gzip");
+        if (meta != null) {
+            String etag = meta.getProperty(KEY_ETAG);
+            String lastModified = meta.getProperty(KEY_LAST_MODIFIED);
+            if (etag != null) headers.put("If-None-Match", etag);
+            if (lastModified != null) headers.put("If-Modified-Since", lastModified);
+        }
+        String requestUrl = url;
+        if (delta) {
+            if (deltaHeader != null) headers.put(deltaHeader, String.valueOf(since));
+            if (deltaQueryParameter != null)
+                requestUrl = appendQueryParameter(url, deltaQueryParameter, since);
+        }
+
+        ChangeLogTransport.Response response = transport.get(requestUrl, headers);
+        try {
+            int code = response.getCode();
+            // 204 No Content: there is no newer version
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED
+                    || (delta && code == HttpURLConnection.HTTP_NO_CONTENT)) {
+                if (meta != null && body.isFile()) {
+                    Log.d(TAG, "Changelog not modified, reading the cached copy");
+                    // The age of the copy starts again
+                    body.setLastModified(System.currentTimeMillis());
+                    return false;
+                }
+                // The cached copy was deleted in the meantime: the whole file is downloaded
+            } else {
+                if (code != HttpURLConnection.HTTP_OK)
+                    throw new IOException("Changelog download failed: HTTP " + code);
+                String encoding = response.getHeader("Content-Encoding");
+                if (encoding != null && !encoding.equalsIgnoreCase("gzip")
+                        && !encoding.equalsIgnoreCase("identity"))
+                    throw new IOException("Unsupported content encoding " + encoding);
+
+                // False if the delta can't be merged: the whole file is downloaded
+                if (store(url, body, response, since)) return true;
+            }
+        } finally {
+            response.close();
+        }
+        // The response is closed once, before the next request, so its connection is reused
+        return fetch(url, body, false);
+    }
+
+    /**
+     * Write the response in a temporary file, then replace the cached copy, so a partial
+     * download never replaces a complete file. The response of a delta fetch is merged into
+     * the cached copy first.
+     *
+     * @return false if the response of a delta fetch can't be merged
+     */
+    private boolean store(String url, File body, ChangeLogTransport.Response response, int since)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Can't create the cache directory " + directory);
+
+        File temp = File.createTempFile("download", ".tmp", directory);
+        File merged = null;
+        try {
+            copy(response.getBody(), temp);
+
+            File file = temp;
+            if (since != ChangeLogVersionIndex.NO_VERSION_CODE) {
+                merged = File.createTempFile("merge", ".tmp", directory);
+                try {
+                    if (mergeDelta(body, temp, since, merged)) file = merged;
+                } catch (IOException e) {
+                    Log.w(TAG, "Can't merge the changelog delta, downloading the whole file", e);
+                    return false;
+                }
+            }
+
+            Properties meta = new Properties();
+            meta.setProperty(KEY_URL, url);
+            // The validators of a delta are not the ones of the merged file, so the next
+            // request is a delta fetch without them
+            if (file == temp) {
+                String etag = response.getHeader("ETag");
+                String lastModified = response.getHeader("Last-Modified");
+                if (etag != null) meta.setProperty(KEY_ETAG, etag);
+                if (lastModified != null) meta.setProperty(KEY_LAST_MODIFIED, lastModified);
+            }
+
+            synchronized (LOCK) {
+                File metaFile = getMetaFile(url);
+                // Without its headers the body is downloaded again, never revalidated
+                metaFile.delete();
+                if (!file.renameTo(body))
+                    throw new IOException("Can't write the cached copy " + body);
+                writeMeta(meta, metaFile);
+            }
+            return true;
+        } finally {
+            temp.delete();
+            if (merged != null) merged.delete();
+        }
+    }
+
+    /**
+     * Merge the response of a delta fetch into the cached copy. The merged file is compressed.
+     *
+     * @return false if the response is the whole file
+     */
+    private boolean mergeDelta(File body, File delta, int since, File merged) throws IOException {
+        InputStream cachedIn = Util.decompress(new FileInputStream(body));
+        try {
+            InputStream deltaIn = Util.decompress(new FileInputStream(delta));
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(merged), 8192);
+                try {
+                    return deltaMerger.merge(cachedIn, deltaIn, since, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                deltaIn.close();
+            }
+        } finally {
+            cachedIn.close();
+        }
+    }
+
+    /**
+     * @return the versionCode of the newest cached version, or NO_VERSION_CODE without a
+     * delta fetch
+     */
+    private int readNewestVersionCode(File body) {
+        if (!isDeltaFetch()) return ChangeLogVersionIndex.NO_VERSION_CODE;
+        try {
+            InputStream in = Util.decompress(new FileInputStream(body));
+            try {
+                return deltaMerger.readNewestVersionCode(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read the newest cached version", e);
+            return ChangeLogVersionIndex.NO_VERSION_CODE;
+        }
+    }
+
+    private static String appendQueryParameter(String url, String name, int value)
+            throws IOException {
+        int fragment = url.indexOf('#');
+        String base = fragment >= 0 ? url.substring(0, fragment) : url;
+        return base + (base.indexOf('?') >= 0 ? '&' : '?')
+                + URLEncoder.encode(name, "UTF-8") + '=' + value
+                + (fragment >= 0 ? url.substring(fragment) : "");
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * @param url url of the changelog file
+     * @return true if there is a cached copy of the file
+     */
+    public boolean isCached(String url) {
+        return getBodyFile(url).isFile();
+    }
+
+    /**
+     * @param url          url of the changelog file
+     * @param maxAgeMillis time a cached copy is valid without checking the server
+     * @return true if the cached copy was downloaded or revalidated less than maxAgeMillis ago
+     */
+    public boolean isFresh(String url, long maxAgeMillis) {
+        File body = getBodyFile(url);
+        if (maxAgeMillis <= 0 || !body.isFile()) return false;
+        long age = System.currentTimeMillis() - body.lastModified();
+        return age >= 0 && age < maxAgeMillis;
+    }
+
+    /**
+     * Delete the cached copy of a file
+     *
+     * @param url url of the changelog file
+     */
+    public void remove(String url) {
+        synchronized (LOCK) {
+            getMetaFile(url).delete();
+            getBodyFile(url).delete();
+        }
+    }
+
+    /**
+     * Delete all the cached files
+     */
+    public void clear() {
+        synchronized (LOCK) {
+            File[] files = directory.listFiles();
+            if (files == null) return;
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Set the transport of the downloads
+     *
+     * @param transport transport, {@link HttpChangeLogTransport} by default
+     */
+    public void setTransport(ChangeLogTransport transport) {
+        this.transport = transport;
+    }
+
+    public ChangeLogTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Set the merger of the delta fetch. The parsers set the merger of their format.
+     *
+     * @param deltaMerger merger, null to disable the delta fetch
+     */
+    public void setDeltaMerger(DeltaMerger deltaMerger) {
+        this.deltaMerger = deltaMerger;
+    }
+
+    public DeltaMerger getDeltaMerger() {
+        return deltaMerger;
+    }
+
+    /**
+     * Send the versionCode of the newest cached version in a query parameter, for example
+     * "since" for changelog.xml?since=120
+     *
+     * @param deltaQueryParameter name of the query parameter, null to not send it
+     */
+    public void setDeltaQueryParameter(String deltaQueryParameter) {
+        this.deltaQueryParameter = deltaQueryParameter;
+    }
+
+    public String getDeltaQueryParameter() {
+        return deltaQueryParameter;
+    }
+
+    /**
+     * Send the versionCode of the newest cached version in a request header
+     *
+     * @param deltaHeader name of the header, null to not send it
+     */
+    public void setDeltaHeader(String deltaHeader) {
+        this.deltaHeader = deltaHeader;
+    }
+
+    public String getDeltaHeader() {
+        return deltaHeader;
+    }
+
+    /**
+     * @return true if the requests ask only for the versions newer than the cached copy
+     */
+    public boolean isDeltaFetch() {
+        return deltaMerger != null && (deltaQueryParameter != null || deltaHeader != null);
+    }
+
+    /**
+     * @return directory of the cached files
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    //--------------------------------------------------------------------------------
+    // Files
+    //--------------------------------------------------------------------------------
+
+    protected File getBodyFile(String url) {
+        return new File(directory, getKey(url) + BODY_SUFFIX);
+    }
+
+    protected File getMetaFile(String url) {
+        return new File(directory, getKey(url) + META_SUFFIX);
+    }
+
+    /**
+     * @return the headers of the cached copy, or null if they are missing or of another url
+     */
+    private Properties readMeta(String url) {
+        File metaFile = getMetaFile(url);
+        if (!metaFile.isFile()) return null;
+        Properties meta = new Properties();
+        try {
+            InputStream in = new FileInputStream(metaFile);
+            try {
+                meta.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read the cached headers", e);
+            return null;
+        }
+        return url.equals(meta.getProperty(KEY_URL)) ? meta : null;
+    }
+
+    private void writeMeta(Properties meta, File metaFile) throws IOException {
+        OutputStream out = new FileOutputStream(metaFile);
+        try {
+            meta.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void copy(InputStream in, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return a file name for the url
+     */
+    private static String getKey(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Merges the response of a delta fetch, with only the newer versions, into the cached copy
+     */
+    public interface DeltaMerger {
+
+        /**
+         * @param cached decompressed cached copy
+         * @return the versionCode of the newest version, or
+         * {@link ChangeLogVersionIndex#NO_VERSION_CODE} to download the whole file
+         * @throws IOException if the file can't be read
+         */
+        int readNewestVersionCode(InputStream cached) throws IOException;
+
+        /**
+         * Write the cached copy with the newer versions of the response
+         *
+         * @param cached           decompressed cached copy
+         * @param delta            decompressed response
+         * @param sinceVersionCode versionCode sent in the request
+         * @param out              merged file
+         * @return false if the response is the whole file, which replaces the cached copy
+         * @throws IOException if the response can't be merged, the whole file is downloaded
+         */
+        boolean merge(InputStream cached, InputStream delta, int sinceVersionCode,
+                      OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+import com.weberbox.changelibs.library.internal.ChangeLogSnapshot;
+import com.weberbox.changelibs.library.internal.ChangeLogVersionIndex;
+import com.weberbox.changelibs.library.parser.BaseParser;
+
+import java.util.List;
+
+/**
+ * Remembers the last version of the changelog seen by the user, in the shared preferences.
+ * <p>
+ * A "what's new" flow only needs:
+ * <pre>
+ * ChangeLogTracker tracker = new ChangeLogTracker(context);
+ * if (tracker.hasUnseenChanges(parser)) {
+ *     // show the changelog with chglib_unseen_only, then
+ *     tracker.markSeen(BuildConfig.VERSION_CODE);
+ * }
+ * </pre>
+ * Until a version is marked as seen, all the versions are unseen. To skip the changelog on the
+ * first install, mark the current version as seen.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class ChangeLogTracker {
+
+    private static final String PREFERENCES_NAME = "chglib_changelog_tracker";
+    private static final String KEY_LAST_SEEN_VERSION_CODE = "last_seen_version_code_";
+
+    /**
+     * Name of the default changelog
+     */
+    public static final String DEFAULT_NAME = "changelog";
+
+    private final SharedPreferences preferences;
+    private final String key;
+
+    //--------------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Create a tracker for the default changelog
+     *
+     * @param context current Context
+     */
+    public ChangeLogTracker(Context context) {
+        this(context, DEFAULT_NAME);
+    }
+
+    /**
+     * Create a tracker for a changelog. Each name is tracked on its own, for apps with more
+     * than one changelog.
+     *
+     * @param context current Context
+     * @param name    name of the changelog
+     */
+    public ChangeLogTracker(Context context, String name) {
+        this.preferences = context.getApplicationContext()
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.key = KEY_LAST_SEEN_VERSION_CODE + name;
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * @return the versionCode of the last version seen, or
+     * {@link ChangeLogVersionIndex#NO_VERSION_CODE} if the changelog has never been seen
+     */
+    public int getLastSeenVersionCode() {
+        return preferences.getInt(key, ChangeLogVersionIndex.NO_VERSION_CODE);
+    }
+
+    /**
+     * @return true if a version has been marked as seen
+     */
+    public boolean hasSeenChangeLog() {
+        return preferences.contains(key);
+    }
+
+    /**
+     * Mark the versions up to a versionCode as seen. The last seen version never goes back.
+     *
+     * @param versionCode versionCode of the last version seen
+     */
+    public void markSeen(int versionCode) {
+        if (versionCode == ChangeLogVersionIndex.NO_VERSION_CODE) return;
+        if (hasSeenChangeLog() && versionCode <= getLastSeenVersionCode()) return;
+        preferences.edit().putInt(key, versionCode).apply();
+    }
+
+    /**
+     * Mark all the versions of a changelog as seen
+     *
+     * @param changeLog parsed changelog
+     */
+    public void markSeen(ChangeLog changeLog) {
+        if (changeLog != null) markSeen(changeLog.getVersionIndex().getLatestVersionCode());
+    }
+
+    /**
+     * Mark all the versions of a snapshot as seen
+     *
+     * @param snapshot snapshot
+     */
+    public void markSeen(ChangeLogSnapshot snapshot) {
+        if (snapshot != null) markSeen(snapshot.getVersionIndex().getLatestVersionCode());
+    }
+
+    /**
+     * Forget the last seen version
+     */
+    public void clear() {
+        preferences.edit().remove(key).apply();
+    }
+
+    //--------------------------------------------------------------------------------
+    // Unseen changes
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Check if the changelog has versions not seen yet. Only the version headers are read, see
+     * {@link BaseParser#hasChangesSince(int)}. Call it on a background thread.
+     *
+     * @param parser parser of the changelog
+     * @return true if there is an unseen version
+     * @throws Exception if the file is not found or if there are errors on parsing
+     */
+    public boolean hasUnseenChanges(BaseParser parser) throws Exception {
+        return parser.hasChangesSince(getLastSeenVersionCode());
+    }
+
+    /**
+     * Parse only the versions not seen yet. The parse stops at the last seen version, see
+     * {@link BaseParser#setStopAtVersionCode(int)}. Call it on a background thread.
+     *
+     * @param parser parser of the changelog
+     * @return the rows of the unseen versions, headers included
+     * @throws Exception if the file is not found or if there are errors on parsing
+     */
+    public List<ChangeLogRow> readUnseenChanges(BaseParser parser) throws Exception {
+        int lastSeen = getLastSeenVersionCode();
+        int stopAtVersionCode = parser.getStopAtVersionCode();
+        parser.setStopAtVersionCode(lastSeen);
+        try {
+            return parser.readChangeLogFile().getRowsSince(lastSeen);
+        } finally {
+            parser.setStopAtVersionCode(stopAtVersionCode);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Downloads the changelog files of an url.
+ * <p>
+ * The default is {@link HttpChangeLogTransport}. An app can use its own http client, for
+ * example to share its connection pool, with
+ * {@link com.weberbox.changelibs.library.parser.BaseParser#setDefaultTransport(ChangeLogTransport)}
+ * for all the parsers, or
+ * {@link com.weberbox.changelibs.library.parser.BaseParser#setTransport(ChangeLogTransport)}
+ * for one parser.
+ * <p>
+ * It is called on background threads, so an implementation must be thread safe and must
+ * bound the time of a request.
+ *
+ * @author James Weber
+ */
+public interface ChangeLogTransport {
+
+    /**
+     * Send a GET request
+     *
+     * @param url     url of the changelog file
+     * @param headers request headers, like If-None-Match
+     * @return the response, which the caller closes
+     * @throws IOException if there is no response
+     */
+    Response get(String url, Map<String, String> headers) throws IOException;
+
+    /**
+     * Response of a request. Closing it releases the connection, which can be reused.
+     */
+    interface Response extends Closeable {
+
+        /**
+         * @return the http status code
+         */
+        int getCode();
+
+        /**
+         * @param name header name, case insensitive
+         * @return the header value, or null
+         */
+        String getHeader(String name);
+
+        /**
+         * @return the body as it is received, without decoding the Content-Encoding
+         * @throws IOException exception
+         */
+        InputStream getBody() throws IOException;
+    }
+}
@@ -35,6 +35,27 @@ public class Constants {
      **/
     public static final int logFileResourceId = R.raw.changelog;
 
+    /**
+     * Format of the changelog file: xml.
+     * <p>
+     * You can use chglib_log_format attribute in ChangeLogListView
+     **/
+    public static final int logFormatXml = 0;
+
+    /**
+     * Format of the changelog file: json.
+     * <p>
+     * You can use chglib_log_format attribute in ChangeLogListView
+     **/
+    public static final int logFormatJson = 1;
+
+    /**
+     * Format of the changelog file: markdown, with the Keep a Changelog format.
+     * <p>
+     * You can use chglib_log_format attribute in ChangeLogListView
+     **/
+    public static final int logFormatMarkdown = 2;
+
     /**
      * Layout resource id for changelog item rows.
      * <p>
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link ChangeLogTransport} with {@link HttpURLConnection}.
+ * <p>
+ * Each attempt is bounded by the connect and read timeouts. Failed connections and 5xx or 429
+ * responses are retried, waiting an exponential backoff between the attempts, so the worst
+ * case is about (maxRetries + 1) * (connectTimeout + readTimeout) plus the backoff.
+ * <p>
+ * The connections are never disconnected: the body of each response is read to the end and
+ * closed, so {@link HttpURLConnection} keeps the connection alive for the next request to
+ * the same server.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class HttpChangeLogTransport implements ChangeLogTransport {
+
+    private static final String TAG = "HttpChangeLogTransport";
+
+    /**
+     * Timeouts, in milliseconds
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 15000;
+
+    /**
+     * Retries after the first attempt
+     */
+    public static final int DEFAULT_MAX_RETRIES = 2;
+
+    /**
+     * Backoff before the first retry, doubled for each retry up to the max, in milliseconds
+     */
+    public static final int DEFAULT_RETRY_DELAY = 500;
+    public static final int DEFAULT_MAX_RETRY_DELAY = 4000;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    // Longer bodies are not drained, the connection is closed instead
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private int retryDelay = DEFAULT_RETRY_DELAY;
+    private int maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+
+    //--------------------------------------------------------------------------------
+
+    @Override
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            boolean last = attempt >= maxRetries;
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) new URL(url).openConnection();
+                connection.setConnectTimeout(connectTimeout);
+                connection.setReadTimeout(readTimeout);
+                connection.setUseCaches(false);
+                if (headers != null) {
+                    for (Map.Entry<String, String> header : headers.entrySet()) {
+                        connection.setRequestProperty(header.getKey(), header.getValue());
+                    }
+                }
+
+                int code = connection.getResponseCode();
+                HttpResponse response = new HttpResponse(connection, code);
+                if (last || !isRetryable(code)) return response;
+                response.close();
+                Log.d(TAG, "Changelog request failed with HTTP " + code + ", retrying");
+            } catch (IOException e) {
+                if (connection != null) connection.disconnect();
+                // An interrupted thread stops, a timeout is retried
+                boolean interrupted = e instanceof InterruptedIOException
+                        && !(e instanceof SocketTimeoutException);
+                if (last || interrupted) throw e;
+                Log.d(TAG, "Changelog request failed, retrying", e);
+            }
+            sleep(getRetryDelay(attempt));
+        }
+    }
+
+    /**
+     * @param code http status code
+     * @return true if the request can succeed if it is sent again
+     */
+    protected boolean isRetryable(int code) {
+        return code >= HttpURLConnection.HTTP_INTERNAL_ERROR || code == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * @param attempt failed attempt, from 0
+     * @return the backoff before the next attempt, in milliseconds
+     */
+    protected long getRetryDelay(int attempt) {
+        long delay = (long) retryDelay << Math.min(attempt, 30);
+        return Math.min(delay, maxRetryDelay);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Changelog request interrupted");
+        }
+    }
+
+    //--------------------------------------------------------------------------------
+    // Settings
+    //--------------------------------------------------------------------------------
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout connect timeout of each attempt, in milliseconds
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @param readTimeout read timeout of each attempt, in milliseconds
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param maxRetries retries after the first attempt, 0 to disable the retries
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @param retryDelay    backoff before the first retry, in milliseconds
+     * @param maxRetryDelay max backoff, in milliseconds
+     */
+    public void setRetryDelay(int retryDelay, int maxRetryDelay) {
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Response of a {@link HttpURLConnection}
+     */
+    private static class HttpResponse implements Response {
+
+        private final HttpURLConnection connection;
+        private final int code;
+        private InputStream body;
+        private boolean closed;
+
+        HttpResponse(HttpURLConnection connection, int code) {
+            this.connection = connection;
+            this.code = code;
+        }
+
+        @Override
+        public int getCode() {
+            return code;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = code < HttpURLConnection.HTTP_BAD_REQUEST
+                        ? connection.getInputStream() : connection.getErrorStream();
+                if (body == null) body = new ByteArrayInputStream(new byte[0]);
+            }
+            return body;
+        }
+
+        /**
+         * Read the rest of the body, so the connection can be reused. Closing it again does
+         * nothing: reading the closed body would fail and disconnect.
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                InputStream is = getBody();
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained <= MAX_DRAIN_BYTES && (read = is.read(buffer)) != -1) {
+                    drained += read;
+                }
+                is.close();
+                if (drained > MAX_DRAIN_BYTES) connection.disconnect();
+            } catch (IOException e) {
+                connection.disconnect();
+            }
+        }
+    }
+}
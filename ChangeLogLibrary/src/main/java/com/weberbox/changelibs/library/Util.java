@@ -21,11 +21,18 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
 /**
  * @author Gabriele Mariotti (gabri.mariotti@gmail.com)
  */
 public class Util {
 
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
     public static boolean isConnected(Context context) {
 
         if (context == null) return false;
@@ -44,4 +51,27 @@ public class Util {
 
         return false;
     }
+
+    /**
+     * Wrap a gzip stream in a {@link GZIPInputStream}, found by its magic bytes, so the file is
+     * decompressed while it is read. Other streams are returned buffered.
+     *
+     * @param is stream, can be null
+     * @return the decompressed stream
+     * @throws IOException exception
+     */
+    public static InputStream decompress(InputStream is) throws IOException {
+        if (is == null) return null;
+
+        BufferedInputStream buffered = new BufferedInputStream(is, GZIP_BUFFER_SIZE);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == (GZIPInputStream.GZIP_MAGIC & 0xff)
+                && second == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+            return new GZIPInputStream(buffered, GZIP_BUFFER_SIZE);
+        }
+        return buffered;
+    }
 }
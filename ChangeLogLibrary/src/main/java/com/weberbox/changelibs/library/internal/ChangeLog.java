@@ -18,7 +18,10 @@ package com.weberbox.changelibs.library.internal;
 
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * ChangeLog model
@@ -29,19 +32,25 @@ import java.util.LinkedList;
 public class ChangeLog {
 
     /**
-     * All changelog rows
+     * All changelog rows, in an indexed list so the adapters can get a row in constant time.
+     * It is a LinkedList only for the callers of the deprecated {@link #getRows()}.
      */
-    private LinkedList<ChangeLogRow> rows;
+    private List<ChangeLogRow> rows;
 
     /**
      * Use a bulleted List
      */
     private boolean bulletedList;
 
+    /**
+     * Versions by versionCode, built on first use
+     */
+    private ChangeLogVersionIndex versionIndex;
+
     //-----------------------------------------------------------------------
 
     public ChangeLog() {
-        rows = new LinkedList<>();
+        rows = new ArrayList<>();
     }
 
     /**
@@ -49,8 +58,9 @@ public class ChangeLog {
      */
     public void addRow(ChangeLogRow row) {
         if (row != null) {
-            if (rows == null) rows = new LinkedList<>();
+            if (rows == null) rows = new ArrayList<>();
             rows.add(row);
+            versionIndex = null;
         }
     }
 
@@ -58,7 +68,8 @@ public class ChangeLog {
      * Clear all rows
      */
     public void clearAllRows() {
-        rows = new LinkedList<>();
+        rows = new ArrayList<>();
+        versionIndex = null;
     }
 
 
@@ -90,13 +101,95 @@ public class ChangeLog {
         this.bulletedList = bulletedList;
     }
 
-    public LinkedList<ChangeLogRow> getRows() {
+    /**
+     * @return the rows, in a random-access list which can be changed
+     */
+    public List<ChangeLogRow> getRowList() {
+        if (!(rows instanceof RandomAccess))
+            rows = rows != null ? new ArrayList<>(rows) : new ArrayList<>();
         return rows;
     }
 
+    /**
+     * Set the rows. A list without indexed access is copied.
+     */
+    public void setRowList(List<ChangeLogRow> rows) {
+        versionIndex = null;
+        if (rows == null) {
+            this.rows = new ArrayList<>();
+        } else if (rows instanceof RandomAccess) {
+            this.rows = rows;
+        } else {
+            this.rows = new ArrayList<>(rows);
+        }
+    }
+
+    /**
+     * The rows are moved to a LinkedList, which is kept until {@link #getRowList()} is called:
+     * a list returned before that is no longer the list of the changelog.
+     *
+     * @return the rows, which can be changed
+     * @deprecated {@link #getRow(int)} takes O(n) on a LinkedList. Use {@link #getRowList()}.
+     */
+    @Deprecated
+    public LinkedList<ChangeLogRow> getRows() {
+        if (!(rows instanceof LinkedList))
+            rows = rows != null ? new LinkedList<>(rows) : new LinkedList<>();
+        return (LinkedList<ChangeLogRow>) rows;
+    }
+
+    /**
+     * @param rows the rows, which are not copied
+     * @deprecated use {@link #setRowList(List)}
+     */
+    @Deprecated
     public void setRows(LinkedList<ChangeLogRow> rows) {
+        versionIndex = null;
         this.rows = rows;
     }
 
+    public ChangeLogRow getRow(int position) {
+        return getRowList().get(position);
+    }
+
+    public int getRowCount() {
+        return rows != null ? rows.size() : 0;
+    }
+
+    /**
+     * The index is built on first use, and again after the rows change.
+     *
+     * @return the versions sorted by versionCode
+     */
+    public ChangeLogVersionIndex getVersionIndex() {
+        List<ChangeLogRow> rows = getRowList();
+        if (versionIndex == null || versionIndex.getRowCount() != rows.size())
+            versionIndex = ChangeLogVersionIndex.build(rows);
+        return versionIndex;
+    }
+
+    /**
+     * @param versionCode versionCode, excluded
+     * @return the rows of the versions newer than versionCode, headers included
+     */
+    public List<ChangeLogRow> getRowsSince(int versionCode) {
+        ChangeLogVersionIndex index = getVersionIndex();
+        List<ChangeLogRow> rows = getRowList();
+        int[] range = index.getNewerRowRange(versionCode);
+        if (range != null) return rows.subList(range[0], range[1]);
+
+        int[] positions = index.getNewerPositions(versionCode);
+        List<ChangeLogRow> newer = new ArrayList<>(positions.length);
+        for (int position : positions) newer.add(rows.get(position));
+        return newer;
+    }
+
+    /**
+     * @return a lazy query over the rows, which are not copied
+     */
+    public ChangeLogQuery query() {
+        return new ChangeLogQuery(getRowList());
+    }
+
 
 }
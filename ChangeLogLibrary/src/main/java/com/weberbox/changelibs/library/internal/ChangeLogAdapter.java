@@ -16,8 +16,8 @@
  **/
 package com.weberbox.changelibs.library.internal;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.text.Html;
 import android.text.method.LinkMovementMethod;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -31,7 +31,9 @@ import androidx.core.content.ContextCompat;
 import com.weberbox.changelibs.R;
 import com.weberbox.changelibs.library.Constants;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Adapter for ChangeLog model
@@ -54,7 +56,9 @@ public class ChangeLogAdapter extends ArrayAdapter<ChangeLogRow> {
 
     public ChangeLogAdapter(Context context,
                             List<ChangeLogRow> items) {
-        super(context, 0, items);
+        // Rows are bound by position
+        super(context, 0, items == null || items instanceof RandomAccess
+                ? items : new ArrayList<>(items));
         this.context = context;
     }
 
@@ -158,7 +162,7 @@ public class ChangeLogAdapter extends ArrayAdapter<ChangeLogRow> {
 
                 if (item != null) {
                     if (viewHolder.text != null) {
-                        viewHolder.text.setText(Html.fromHtml(item.getChangeText()));
+                        viewHolder.text.setText(item.getSpannedText());
                         viewHolder.text.setMovementMethod(LinkMovementMethod.getInstance());
                     }
                     if (viewHolder.bulletText != null) {
@@ -218,6 +222,19 @@ public class ChangeLogAdapter extends ArrayAdapter<ChangeLogRow> {
         return TYPE_ROW;
     }
 
+    /**
+     * Release the rendered texts from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW}.
+     * They are rendered again when the rows are shown.
+     *
+     * @param level level of {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void trimMemory(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) return;
+        for (int i = 0; i < getCount(); i++) {
+            getItem(i).releaseSpannedText();
+        }
+    }
+
     //-----------------------------------------------------------------------------------
     // View Holder
     //-----------------------------------------------------------------------------------
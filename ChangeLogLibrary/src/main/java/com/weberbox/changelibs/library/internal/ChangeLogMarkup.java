@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.internal;
+
+import android.graphics.Typeface;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.CharacterStyle;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.text.style.URLSpan;
+import android.text.style.UnderlineSpan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renderer for the change text markup.
+ * <p>
+ * The parsers convert the [b] [i] markup of the file to html tags, see
+ * {@link ChangeLogRow#convertMarkup(String)}. The tags b, strong, i, em, u, a href,
+ * font color and br, written as &lt;b&gt; or as [b], are turned directly into spans,
+ * without going through an html parser. Entities like &amp;amp; and &amp;#91; are decoded,
+ * other tags are shown as they are.
+ * <p>
+ * It doesn't touch any view, so it can be used on a background thread.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class ChangeLogMarkup {
+
+    private static final StyleSpan BOLD = new StyleSpan(Typeface.BOLD);
+    private static final StyleSpan ITALIC = new StyleSpan(Typeface.ITALIC);
+    private static final UnderlineSpan UNDERLINE = new UnderlineSpan();
+
+    private static final String[] COLOR_NAMES = {"aqua", "black", "blue", "fuchsia", "gray",
+            "green", "grey", "lime", "maroon", "navy", "olive", "purple", "red", "silver",
+            "teal", "white", "yellow"};
+    private static final int[] COLOR_VALUES = {0x00FFFF, 0x000000, 0x0000FF, 0xFF00FF,
+            0x808080, 0x008000, 0x808080, 0x00FF00, 0x800000, 0x000080, 0x808000, 0x800080,
+            0xFF0000, 0xC0C0C0, 0x008080, 0xFFFFFF, 0xFFFF00};
+
+    private ChangeLogMarkup() {
+    }
+
+    /**
+     * Render the change text
+     *
+     * @param text change text with the &lt;b&gt; &lt;i&gt; or the [b] [i] tags
+     * @return the styled text
+     */
+    public static CharSequence render(String text) {
+        if (text == null) return null;
+        return new Renderer(text).render();
+    }
+
+    /**
+     * Render the change text of the rows in advance, so it is ready when they are shown.
+     *
+     * @param rows rows
+     */
+    public static void render(List<? extends ChangeLogRow> rows) {
+        if (rows == null) return;
+        for (ChangeLogRow row : rows) {
+            if (!row.isHeader()) row.getSpannedText();
+        }
+    }
+
+    /**
+     * Release the rendered text of the rows, to free memory. It is rendered again when the
+     * rows are shown.
+     *
+     * @param rows rows
+     */
+    public static void release(List<? extends ChangeLogRow> rows) {
+        if (rows == null) return;
+        for (int i = 0; i < rows.size(); i++) {
+            rows.get(i).releaseSpannedText();
+        }
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Renderer for a single text
+     */
+    private static class Renderer {
+
+        private final String source;
+        private final StringBuilder text;
+
+        // Open tags
+        private String[] openTags = new String[8];
+        private Object[] openSpans = new Object[8];
+        private int[] openStarts = new int[8];
+        private int depth;
+
+        // Spans to set
+        private List<Object> spans;
+        private List<int[]> ranges;
+
+        // The shared spans are wrapped when they are used more than once in the same text
+        private boolean boldUsed;
+        private boolean italicUsed;
+        private boolean underlineUsed;
+
+        Renderer(String source) {
+            this.source = source;
+            this.text = new StringBuilder(source.length());
+        }
+
+        /**
+         * @return the styled text
+         */
+        CharSequence render() {
+            int length = source.length();
+            int i = 0;
+            while (i < length) {
+                char c = source.charAt(i);
+                if (c == '[' || c == '<') {
+                    int end = readTag(i, c == '[' ? ']' : '>');
+                    if (end < 0) {
+                        // Not a supported tag: it is text
+                        text.append(c);
+                        i++;
+                    } else {
+                        i = end;
+                    }
+                } else if (c == '&') {
+                    i = readEntity(source, i, text);
+                } else if (c == ' ' || c == '\n' || c == '\t' || c == '\r') {
+                    // Whitespace is collapsed like in Html.fromHtml
+                    int last = text.length();
+                    char previous = last == 0 ? '\n' : text.charAt(last - 1);
+                    if (previous != ' ' && previous != '\n') text.append(' ');
+                    i++;
+                } else {
+                    text.append(c);
+                    i++;
+                }
+            }
+            // The tags left open end with the text
+            closeTags(0);
+            if (spans == null) return text.toString();
+
+            SpannableString spannable = new SpannableString(text);
+            for (int s = 0; s < spans.size(); s++) {
+                int[] range = ranges.get(s);
+                spannable.setSpan(spans.get(s), range[0], range[1],
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+            return spannable;
+        }
+
+        /**
+         * @return the position after the tag, or -1 if it is not a supported tag
+         */
+        private int readTag(int start, char close) {
+            int end = source.indexOf(close, start + 1);
+            if (end < 0) return -1;
+
+            String tag = source.substring(start + 1, end).trim();
+            if (tag.isEmpty() || tag.indexOf('[') >= 0 || tag.indexOf('<') >= 0) return -1;
+
+            boolean closing = tag.charAt(0) == '/';
+            if (closing) tag = tag.substring(1).trim();
+            boolean empty = !tag.isEmpty() && tag.charAt(tag.length() - 1) == '/';
+            if (empty) tag = tag.substring(0, tag.length() - 1).trim();
+
+            int nameEnd = 0;
+            while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd)))
+                nameEnd++;
+            String name = tag.substring(0, nameEnd).toLowerCase(Locale.US);
+            String attributes = tag.substring(nameEnd);
+
+            Object span;
+            switch (name) {
+                case "br":
+                    if (!closing) text.append('\n');
+                    return end + 1;
+                case "b":
+                case "strong":
+                    span = BOLD;
+                    break;
+                case "i":
+                case "em":
+                    span = ITALIC;
+                    break;
+                case "u":
+                    span = UNDERLINE;
+                    break;
+                case "a": {
+                    String href = readAttribute(attributes, "href");
+                    span = href != null ? new URLSpan(href) : null;
+                    break;
+                }
+                case "font": {
+                    String color = readAttribute(attributes, "color");
+                    int rgb = color != null ? parseColor(color) : -1;
+                    span = rgb != -1 ? new ForegroundColorSpan(0xFF000000 | rgb) : null;
+                    break;
+                }
+                default:
+                    return -1;
+            }
+
+            if (closing) {
+                // A closing tag without its opening tag is dropped, like in Html.fromHtml
+                for (int open = depth - 1; open >= 0; open--) {
+                    if (openTags[open].equals(name)) {
+                        closeTags(open);
+                        break;
+                    }
+                }
+                return end + 1;
+            }
+            if (empty) return end + 1;
+
+            if (depth == openTags.length) {
+                openTags = Arrays.copyOf(openTags, depth * 2);
+                openSpans = Arrays.copyOf(openSpans, depth * 2);
+                openStarts = Arrays.copyOf(openStarts, depth * 2);
+            }
+            openTags[depth] = name;
+            openSpans[depth] = span;
+            openStarts[depth] = text.length();
+            depth++;
+            return end + 1;
+        }
+
+        /**
+         * Close the open tags down to the given depth, with the inner tags first
+         */
+        private void closeTags(int toDepth) {
+            while (depth > toDepth) {
+                depth--;
+                Object span = openSpans[depth];
+                if (span != null && openStarts[depth] < text.length()) {
+                    addSpan(span, openStarts[depth], text.length());
+                }
+                openSpans[depth] = null;
+            }
+        }
+
+        private void addSpan(Object span, int start, int end) {
+            if (spans == null) {
+                spans = new ArrayList<>();
+                ranges = new ArrayList<>();
+            }
+            spans.add(reuse(span));
+            ranges.add(new int[]{start, end});
+        }
+
+        /**
+         * A span object can be set only once in a text
+         */
+        private Object reuse(Object span) {
+            boolean used;
+            if (span == BOLD) {
+                used = boldUsed;
+                boldUsed = true;
+            } else if (span == ITALIC) {
+                used = italicUsed;
+                italicUsed = true;
+            } else if (span == UNDERLINE) {
+                used = underlineUsed;
+                underlineUsed = true;
+            } else {
+                return span;
+            }
+            return used ? CharacterStyle.wrap((CharacterStyle) span) : span;
+        }
+
+        /**
+         * Read an attribute of a tag. The value can be quoted or not, and its entities are
+         * decoded.
+         *
+         * @return the attribute value, or null if it is missing
+         */
+        private static String readAttribute(String attributes, String wanted) {
+            int i = 0;
+            int length = attributes.length();
+            while (true) {
+                while (i < length && Character.isWhitespace(attributes.charAt(i))) i++;
+                if (i == length) return null;
+
+                int nameStart = i;
+                while (i < length && attributes.charAt(i) != '='
+                        && !Character.isWhitespace(attributes.charAt(i))) i++;
+                String name = attributes.substring(nameStart, i);
+                while (i < length && Character.isWhitespace(attributes.charAt(i))) i++;
+                // Attribute without value
+                if (i == length || attributes.charAt(i) != '=') continue;
+                i++;
+                while (i < length && Character.isWhitespace(attributes.charAt(i))) i++;
+                if (i == length) return null;
+
+                int valueStart;
+                int valueEnd;
+                char quote = attributes.charAt(i);
+                if (quote == '"' || quote == '\'') {
+                    valueStart = i + 1;
+                    valueEnd = attributes.indexOf(quote, valueStart);
+                    if (valueEnd < 0) valueEnd = length;
+                    i = Math.min(valueEnd + 1, length);
+                } else {
+                    valueStart = i;
+                    while (i < length && !Character.isWhitespace(attributes.charAt(i))) i++;
+                    valueEnd = i;
+                }
+                if (name.equalsIgnoreCase(wanted))
+                    return decode(attributes.substring(valueStart, valueEnd));
+            }
+        }
+
+        private static String decode(String value) {
+            if (value.indexOf('&') < 0) return value;
+            StringBuilder decoded = new StringBuilder(value.length());
+            int i = 0;
+            while (i < value.length()) {
+                char c = value.charAt(i);
+                if (c == '&') {
+                    i = readEntity(value, i, decoded);
+                } else {
+                    decoded.append(c);
+                    i++;
+                }
+            }
+            return decoded.toString();
+        }
+
+        /**
+         * Append the character of the entity at the given position, or the '&amp;' if it is
+         * not an entity.
+         *
+         * @return the position after the entity
+         */
+        private static int readEntity(String source, int start, StringBuilder out) {
+            int end = source.indexOf(';', start + 1);
+            if (end < 0 || end - start > 10) {
+                out.append('&');
+                return start + 1;
+            }
+
+            String name = source.substring(start + 1, end);
+            int c = -1;
+            switch (name) {
+                case "amp":
+                    c = '&';
+                    break;
+                case "lt":
+                    c = '<';
+                    break;
+                case "gt":
+                    c = '>';
+                    break;
+                case "quot":
+                    c = '"';
+                    break;
+                case "apos":
+                    c = '\'';
+                    break;
+                case "nbsp":
+                    c = '\u00A0';
+                    break;
+                default:
+                    if (name.length() > 1 && name.charAt(0) == '#') {
+                        boolean hex = name.charAt(1) == 'x' || name.charAt(1) == 'X';
+                        c = parseNumber(name, hex ? 2 : 1, hex ? 16 : 10);
+                    }
+            }
+            if (c < 0) {
+                out.append('&');
+                return start + 1;
+            }
+            out.appendCodePoint(c);
+            return end + 1;
+        }
+
+        /**
+         * @return the code point, or -1 if it is not valid
+         */
+        private static int parseNumber(String number, int start, int radix) {
+            if (start == number.length()) return -1;
+            int value = 0;
+            for (int i = start; i < number.length(); i++) {
+                int digit = Character.digit(number.charAt(i), radix);
+                if (digit < 0) return -1;
+                value = value * radix + digit;
+                if (value > Character.MAX_CODE_POINT) return -1;
+            }
+            return value;
+        }
+
+        /**
+         * @return the rgb value for #RRGGBB, #RGB or a color name, or -1 if it is not
+         * supported
+         */
+        private static int parseColor(String color) {
+            color = color.trim();
+            if (color.startsWith("#")) {
+                int length = color.length();
+                if (length != 4 && length != 7) return -1;
+                int rgb = 0;
+                for (int i = 1; i < length; i++) {
+                    int digit = Character.digit(color.charAt(i), 16);
+                    if (digit < 0) return -1;
+                    rgb = (rgb << 4) | digit;
+                    // #RGB is #RRGGBB
+                    if (length == 4) rgb = (rgb << 4) | digit;
+                }
+                return rgb;
+            }
+            int index = Arrays.asList(COLOR_NAMES).indexOf(color.toLowerCase(Locale.US));
+            return index >= 0 ? COLOR_VALUES[index] : -1;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.internal;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy filter over the rows of a {@link ChangeLog} or of a {@link ChangeLogSnapshot}.
+ * <p>
+ * The rows are not copied: the iterator reads the source while it goes, and it stops as soon
+ * as the limit or the last requested version is reached. For example the new entries of the
+ * last three versions:
+ * <pre>
+ * for (ChangeLogRow row : changeLog.query()
+ *         .latestVersions(3)
+ *         .types(ChangeLogRow.NEW)) {
+ *     ...
+ * }
+ * </pre>
+ * A query can be iterated more than once. It is not thread safe, but a query over a
+ * {@link ChangeLogSnapshot} can be iterated on any thread.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public final class ChangeLogQuery implements Iterable<ChangeLogRow> {
+
+    private static final int ALL_TYPES = -1;
+
+    private final List<ChangeLogRow> rows;
+
+    private int typeMask = ALL_TYPES;
+    private boolean includeRows = true;
+    private boolean includeHeaders = false;
+    private int minVersionCode = Integer.MIN_VALUE;
+    private int maxVersionCode = Integer.MAX_VALUE;
+    private int latestVersions = Integer.MAX_VALUE;
+    private int limit = Integer.MAX_VALUE;
+
+    ChangeLogQuery(List<ChangeLogRow> rows) {
+        this.rows = rows;
+    }
+
+    //-----------------------------------------------------------------------
+    // Filters
+    //-----------------------------------------------------------------------
+
+    /**
+     * Keep only the rows with these types, like {@link ChangeLogRow#NEW}. Headers are not
+     * filtered by type.
+     *
+     * @param types types
+     * @return this query
+     */
+    public ChangeLogQuery types(int... types) {
+        typeMask = 0;
+        for (int type : types) typeMask |= 1 << type;
+        return this;
+    }
+
+    /**
+     * Include the version headers. By default only the change rows are returned.
+     *
+     * @param include true to include the headers
+     * @return this query
+     */
+    public ChangeLogQuery headers(boolean include) {
+        includeHeaders = include;
+        return this;
+    }
+
+    /**
+     * Return only the version headers
+     *
+     * @return this query
+     */
+    public ChangeLogQuery onlyHeaders() {
+        includeHeaders = true;
+        includeRows = false;
+        return this;
+    }
+
+    /**
+     * Keep only the versions with a versionCode in a range
+     *
+     * @param min min versionCode, included
+     * @param max max versionCode, included
+     * @return this query
+     */
+    public ChangeLogQuery versionCodes(int min, int max) {
+        minVersionCode = min;
+        maxVersionCode = max;
+        return this;
+    }
+
+    /**
+     * Keep only the versions newer than a versionCode
+     *
+     * @param versionCode versionCode, excluded
+     * @return this query
+     */
+    public ChangeLogQuery since(int versionCode) {
+        return versionCodes(versionCode == Integer.MAX_VALUE ? versionCode : versionCode + 1,
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Keep only the first versions of the file, which are the latest ones when the changelog
+     * lists the newest version first. The iteration stops after them.
+     *
+     * @param count number of versions
+     * @return this query
+     */
+    public ChangeLogQuery latestVersions(int count) {
+        latestVersions = Math.max(count, 0);
+        return this;
+    }
+
+    /**
+     * Stop after a number of results
+     *
+     * @param limit max number of rows
+     * @return this query
+     */
+    public ChangeLogQuery limit(int limit) {
+        this.limit = Math.max(limit, 0);
+        return this;
+    }
+
+    //-----------------------------------------------------------------------
+    // Results
+    //-----------------------------------------------------------------------
+
+    @Override
+    public Iterator<ChangeLogRow> iterator() {
+        return new QueryIterator();
+    }
+
+    /**
+     * @return the first result, or null
+     */
+    public ChangeLogRow first() {
+        Iterator<ChangeLogRow> iterator = iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * @return true if there is at least one result
+     */
+    public boolean any() {
+        return iterator().hasNext();
+    }
+
+    /**
+     * @return number of results. It reads the rows up to the limit.
+     */
+    public int count() {
+        int count = 0;
+        for (Iterator<ChangeLogRow> iterator = iterator(); iterator.hasNext(); iterator.next())
+            count++;
+        return count;
+    }
+
+    private boolean matches(ChangeLogRow row) {
+        if (row.isHeader()) {
+            if (!includeHeaders) return false;
+        } else {
+            if (!includeRows) return false;
+            int type = row.getLogType();
+            if (typeMask != ALL_TYPES && (type < 0 || type > 31 || (typeMask & 1 << type) == 0))
+                return false;
+        }
+        int versionCode = row.getVersionCode();
+        return versionCode >= minVersionCode && versionCode <= maxVersionCode;
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Iterator which looks for the next match on demand
+     */
+    private class QueryIterator implements Iterator<ChangeLogRow> {
+
+        private int position = 0;
+        private int versions = 0;
+        private int returned = 0;
+        private ChangeLogRow next;
+        private boolean done = false;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) return true;
+            if (done || returned >= limit) return false;
+
+            // Index access: the list can grow while it is read
+            while (position < rows.size()) {
+                ChangeLogRow row = rows.get(position++);
+                if (row == null) continue;
+                if (row.isHeader() && ++versions > latestVersions) break;
+                if (matches(row)) {
+                    next = row;
+                    return true;
+                }
+            }
+            done = true;
+            return false;
+        }
+
+        @Override
+        public ChangeLogRow next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            ChangeLogRow row = next;
+            next = null;
+            returned++;
+            return row;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Read only query");
+        }
+    }
+}
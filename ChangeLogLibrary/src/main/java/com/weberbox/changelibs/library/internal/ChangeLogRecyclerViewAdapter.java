@@ -17,8 +17,8 @@
  */
 package com.weberbox.changelibs.library.internal;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.text.Html;
 import android.text.method.LinkMovementMethod;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -29,14 +29,15 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.weberbox.changelibs.R;
 import com.weberbox.changelibs.library.Constants;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Gabriele Mariotti (gabri.mariotti@gmail.com)
@@ -53,23 +54,499 @@ public class ChangeLogRecyclerViewAdapter extends RecyclerView.Adapter<RecyclerV
     private int colorCurrentVersion = Constants.currentVersionColor;
     private final int stringVersionHeader = Constants.stringVersionHeader;
 
-    private final List<ChangeLogRow> items;
+    // Published rows, replaced as a whole
+    private final AtomicReference<ChangeLogSnapshot> snapshot;
+
+    // Rows released by trimMemory(), restored on the next access
+    private volatile ChangeLogSnapshot.Released releasedRows;
+
+    // Types and versions shown, and the positions of their rows in the snapshot:
+    // projection[projectionFrom .. projectionTo), or the positions themselves without projection
+    private int typeFilter = ChangeLogTypeIndex.ALL_TYPES;
+    private int sinceVersionCode = ChangeLogVersionIndex.NO_VERSION_CODE;
+    private int[] projection;
+    private int projectionFrom;
+    private int projectionTo;
+    private ChangeLogSnapshot projectionSnapshot;
+
+    // Rows loaded on demand, which synchronize themselves
+    private final WindowedRowList windowedItems;
+
+    // Compact storage, bound through a single cursor
+    private final CompactChangeLog compactItems;
+    private final CompactChangeLog.Cursor cursor;
 
     // -------------------------------------------------------------
     // Constructors
     // -------------------------------------------------------------
 
     public ChangeLogRecyclerViewAdapter(Context context, List<ChangeLogRow> items) {
+        this.context = context;
+        if (items instanceof WindowedRowList) {
+            this.snapshot = null;
+            this.windowedItems = (WindowedRowList) items;
+        } else {
+            // The rows are copied
+            this.snapshot = new AtomicReference<>(ChangeLogSnapshot.of(items, true));
+            this.windowedItems = null;
+        }
+        this.compactItems = null;
+        this.cursor = null;
+    }
+
+    /**
+     * Create an adapter which binds the rows of a {@link ChangeLogSnapshot}
+     */
+    public ChangeLogRecyclerViewAdapter(Context context, ChangeLogSnapshot snapshot) {
+        this.context = context;
+        this.snapshot = new AtomicReference<>(
+                snapshot != null ? snapshot : ChangeLogSnapshot.EMPTY);
+        this.windowedItems = null;
+        this.compactItems = null;
+        this.cursor = null;
+    }
+
+    /**
+     * Create an adapter which binds the rows from a {@link CompactChangeLog}, without a
+     * {@link ChangeLogRow} per position.
+     */
+    public ChangeLogRecyclerViewAdapter(Context context, CompactChangeLog items) {
         this.context = context;
         if (items == null)
-            items = new ArrayList<>();
-        this.items = items;
+            items = new CompactChangeLog();
+        this.snapshot = null;
+        this.windowedItems = null;
+        this.compactItems = items;
+        this.cursor = items.newCursor();
     }
 
-    public void add(LinkedList<ChangeLogRow> rows) {
-        int originalPosition = items.size();
-        items.addAll(rows);
-        notifyItemRangeInserted(originalPosition, originalPosition + rows.size());
+    /**
+     * Append rows. Call it on the main thread.
+     *
+     * @throws IllegalStateException if the rows are loaded from the file by a
+     *                               {@link WindowedRowList}
+     */
+    public void add(List<ChangeLogRow> rows) {
+        if (windowedItems != null)
+            throw new IllegalStateException("The rows of this adapter are loaded from the file");
+        int originalPosition = getItemCount();
+        if (compactItems != null) {
+            compactItems.addAll(rows);
+        } else {
+            ChangeLogSnapshot current;
+            do {
+                current = currentSnapshot();
+            } while (!snapshot.compareAndSet(current, current.append(rows)));
+            if (isFiltered()) {
+                // The new rows are spread in the filtered positions
+                notifyDataSetChanged();
+                return;
+            }
+        }
+        notifyItemRangeInserted(originalPosition, rows.size());
+    }
+
+    /**
+     * Replace all rows in one step. The snapshot can be built on any thread, but this method
+     * must be called on the main thread.
+     * <p>
+     * A snapshot with the same rows replaces the current one without changes, for example to
+     * use its {@link ChangeLogTypeIndex} built in background.
+     *
+     * @param newSnapshot new rows
+     */
+    public void setSnapshot(ChangeLogSnapshot newSnapshot) {
+        if (snapshot == null)
+            throw new IllegalStateException("The rows of this adapter are not in a snapshot");
+        if (newSnapshot == null) newSnapshot = ChangeLogSnapshot.EMPTY;
+        ChangeLogSnapshot previous;
+        synchronized (this) {
+            releasedRows = null;
+            previous = snapshot.getAndSet(newSnapshot);
+        }
+        if (!newSnapshot.hasSameRows(previous)) notifyDataSetChanged();
+    }
+
+    /**
+     * Show only the rows with some types, and the headers of their versions.
+     * <p>
+     * The positions of each type are computed once for each snapshot, so switching between
+     * filters doesn't read the rows again. Call it on the main thread.
+     *
+     * @param types types, like {@link ChangeLogRow#FIX}. No types to show all rows.
+     */
+    public void setTypeFilter(int... types) {
+        if (snapshot == null)
+            throw new IllegalStateException("The rows of this adapter are not in a snapshot");
+        int mask = types == null || types.length == 0
+                ? ChangeLogTypeIndex.ALL_TYPES : ChangeLogTypeIndex.maskOf(types);
+        if (mask == typeFilter) return;
+        typeFilter = mask;
+        projectionSnapshot = null;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Show all rows
+     */
+    public void clearTypeFilter() {
+        setTypeFilter();
+    }
+
+    /**
+     * @return the mask of the types shown, see {@link ChangeLogTypeIndex#maskOf(int...)}
+     */
+    public int getTypeFilter() {
+        return typeFilter;
+    }
+
+    /**
+     * Show only the versions newer than a versionCode.
+     * <p>
+     * The versions are found with a binary search, in O(log n) when the file is sorted by
+     * versionCode. Call it on the main thread.
+     *
+     * @param versionCode versionCode, excluded. {@link ChangeLogVersionIndex#NO_VERSION_CODE}
+     *                    to show all versions.
+     */
+    public void setSinceVersionCode(int versionCode) {
+        if (snapshot == null)
+            throw new IllegalStateException("The rows of this adapter are not in a snapshot");
+        if (versionCode == sinceVersionCode) return;
+        sinceVersionCode = versionCode;
+        projectionSnapshot = null;
+        notifyDataSetChanged();
+    }
+
+    public int getSinceVersionCode() {
+        return sinceVersionCode;
+    }
+
+    private boolean isFiltered() {
+        return typeFilter != ChangeLogTypeIndex.ALL_TYPES
+                || sinceVersionCode != ChangeLogVersionIndex.NO_VERSION_CODE;
+    }
+
+    /**
+     * Compute the positions shown in the snapshot
+     */
+    private void updateProjection(ChangeLogSnapshot current) {
+        if (projectionSnapshot == current) return;
+        projectionSnapshot = current;
+
+        Projection shown = project(current, typeFilter, sinceVersionCode);
+        projection = shown.positions;
+        projectionFrom = shown.from;
+        projectionTo = shown.to;
+    }
+
+    /**
+     * @return the positions of the rows shown with some filters
+     */
+    private static Projection project(ChangeLogSnapshot current, int typeFilter,
+                                      int sinceVersionCode) {
+        int[] positions = null;
+        if (typeFilter != ChangeLogTypeIndex.ALL_TYPES)
+            positions = current.getTypeIndex().getPositions(typeFilter);
+        int from = 0;
+        int to = positions != null ? positions.length : current.size();
+
+        if (sinceVersionCode != ChangeLogVersionIndex.NO_VERSION_CODE) {
+            ChangeLogVersionIndex versionIndex = current.getVersionIndex();
+            int[] range = versionIndex.getNewerRowRange(sinceVersionCode);
+            if (range == null) {
+                // Not sorted by versionCode
+                int[] newer = versionIndex.getNewerPositions(sinceVersionCode);
+                positions = positions != null ? intersect(positions, newer) : newer;
+                to = positions.length;
+            } else if (positions != null) {
+                from = ChangeLogVersionIndex.lowerBound(positions, range[0]);
+                to = ChangeLogVersionIndex.lowerBound(positions, range[1]);
+            } else {
+                from = range[0];
+                to = range[1];
+            }
+        }
+
+        return new Projection(positions, from, to);
+    }
+
+    /**
+     * Positions of the rows shown: positions[from .. to), or the range from .. to itself
+     * without positions
+     */
+    private static final class Projection {
+
+        final int[] positions;
+        final int from;
+        final int to;
+
+        Projection(int[] positions, int from, int to) {
+            this.positions = positions;
+            this.from = from;
+            this.to = to;
+        }
+
+        int size() {
+            return to - from;
+        }
+
+        int get(int index) {
+            return positions != null ? positions[from + index] : from + index;
+        }
+    }
+
+    /**
+     * @return the values in both sorted arrays
+     */
+    private static int[] intersect(int[] first, int[] second) {
+        int[] result = new int[Math.min(first.length, second.length)];
+        int count = 0;
+        int j = 0;
+        for (int value : first) {
+            while (j < second.length && second[j] < value) j++;
+            if (j < second.length && second[j] == value) result[count++] = value;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return the current rows, or null if the rows are not in a snapshot. It can be called on
+     * any thread.
+     */
+    public ChangeLogSnapshot getSnapshot() {
+        return snapshot != null ? currentSnapshot() : null;
+    }
+
+    /**
+     * @return the current snapshot, with the released rows restored
+     */
+    private ChangeLogSnapshot currentSnapshot() {
+        if (releasedRows == null) {
+            ChangeLogSnapshot current = snapshot.get();
+            // The rows can be released in the meantime
+            if (releasedRows == null) return current;
+        }
+        synchronized (this) {
+            ChangeLogSnapshot.Released released = releasedRows;
+            if (released != null) {
+                snapshot.set(released.restore());
+                releasedRows = null;
+            }
+            return snapshot.get();
+        }
+    }
+
+    // -------------------------------------------------------------
+    // Updates
+    // -------------------------------------------------------------
+
+    /**
+     * Compare a newer version of the changelog with the rows shown, with the filters in use.
+     * It can be called on a background thread, since the diff takes O(n) for similar files,
+     * then the update is applied on the main thread with {@link #applyUpdate(SnapshotUpdate)}.
+     *
+     * @param newSnapshot new rows
+     * @return the update
+     */
+    public SnapshotUpdate diffSnapshot(ChangeLogSnapshot newSnapshot) {
+        if (snapshot == null)
+            throw new IllegalStateException("The rows of this adapter are not in a snapshot");
+        if (newSnapshot == null) newSnapshot = ChangeLogSnapshot.EMPTY;
+
+        ChangeLogSnapshot oldSnapshot = currentSnapshot();
+        int types = typeFilter;
+        int since = sinceVersionCode;
+        RowDiffCallback callback = new RowDiffCallback(
+                oldSnapshot, project(oldSnapshot, types, since),
+                newSnapshot, project(newSnapshot, types, since));
+        DiffUtil.DiffResult diff = callback.hasChanges() ? DiffUtil.calculateDiff(callback) : null;
+        return new SnapshotUpdate(oldSnapshot, newSnapshot, types, since, diff);
+    }
+
+    /**
+     * Replace the rows with the ones of an update, notifying only the rows which changed.
+     * When the rows or the filters have changed after {@link #diffSnapshot(ChangeLogSnapshot)},
+     * all the rows are replaced as with {@link #setSnapshot(ChangeLogSnapshot)}. Call it on the
+     * main thread.
+     *
+     * @param update update from {@link #diffSnapshot(ChangeLogSnapshot)}
+     */
+    public void applyUpdate(SnapshotUpdate update) {
+        boolean applied = false;
+        synchronized (this) {
+            if (releasedRows == null && snapshot.get() == update.oldSnapshot
+                    && typeFilter == update.typeFilter
+                    && sinceVersionCode == update.sinceVersionCode) {
+                snapshot.set(update.newSnapshot);
+                projectionSnapshot = null;
+                applied = true;
+            }
+        }
+        if (!applied) {
+            // The rows shown have changed in the meantime
+            setSnapshot(update.newSnapshot);
+        } else if (update.diff != null) {
+            update.diff.dispatchUpdatesTo(this);
+        }
+    }
+
+    /**
+     * Rows of a newer snapshot, with the changes from the rows shown
+     */
+    public static final class SnapshotUpdate {
+
+        private final ChangeLogSnapshot oldSnapshot;
+        private final ChangeLogSnapshot newSnapshot;
+        private final int typeFilter;
+        private final int sinceVersionCode;
+        private final DiffUtil.DiffResult diff;
+
+        private SnapshotUpdate(ChangeLogSnapshot oldSnapshot, ChangeLogSnapshot newSnapshot,
+                               int typeFilter, int sinceVersionCode, DiffUtil.DiffResult diff) {
+            this.oldSnapshot = oldSnapshot;
+            this.newSnapshot = newSnapshot;
+            this.typeFilter = typeFilter;
+            this.sinceVersionCode = sinceVersionCode;
+            this.diff = diff;
+        }
+
+        public ChangeLogSnapshot getSnapshot() {
+            return newSnapshot;
+        }
+
+        /**
+         * @return false if the rows shown are the same
+         */
+        public boolean hasChanges() {
+            return diff != null;
+        }
+    }
+
+    /**
+     * Compares the rows shown of two snapshots. The rows are different objects, so they are
+     * compared by content, see {@link ChangeLogRow#isSameRow(ChangeLogRow)}.
+     */
+    private static final class RowDiffCallback extends DiffUtil.Callback {
+
+        private final ChangeLogSnapshot oldSnapshot;
+        private final Projection oldRows;
+        private final ChangeLogSnapshot newSnapshot;
+        private final Projection newRows;
+
+        RowDiffCallback(ChangeLogSnapshot oldSnapshot, Projection oldRows,
+                        ChangeLogSnapshot newSnapshot, Projection newRows) {
+            this.oldSnapshot = oldSnapshot;
+            this.oldRows = oldRows;
+            this.newSnapshot = newSnapshot;
+            this.newRows = newRows;
+        }
+
+        /**
+         * @return false if the rows shown have the same content, in the same order
+         */
+        boolean hasChanges() {
+            if (oldRows.size() != newRows.size()) return true;
+            for (int i = 0; i < oldRows.size(); i++) {
+                if (!areContentsTheSame(i, i)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldSnapshot.getRow(oldRows.get(oldPosition))
+                    .isSameRow(newSnapshot.getRow(newRows.get(newPosition)));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return oldSnapshot.getRow(oldRows.get(oldPosition))
+                    .hasSameContent(newSnapshot.getRow(newRows.get(newPosition)));
+        }
+    }
+
+    // -------------------------------------------------------------
+    // Memory
+    // -------------------------------------------------------------
+
+    /**
+     * Release memory, depending on the level of {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * Call it on the main thread.
+     * <ul>
+     * <li>from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW}: the rendered texts, which
+     * are rendered again when the rows are bound</li>
+     * <li>from {@link ComponentCallbacks2#TRIM_MEMORY_BACKGROUND}: the rows of the snapshot are
+     * packed in a {@link CompactChangeLog}, and restored on the next access. The windowed
+     * versions are released and loaded again from the file.</li>
+     * </ul>
+     *
+     * @param level trim level
+     */
+    public void trimMemory(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) return;
+
+        if (compactItems != null) {
+            compactItems.clearSpannedCache();
+        } else if (snapshot != null) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+                releaseRows();
+            } else if (releasedRows == null) {
+                ChangeLogMarkup.release(snapshot.get().getRows());
+            }
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            windowedItems.trim();
+        }
+    }
+
+    private synchronized void releaseRows() {
+        ChangeLogSnapshot current = snapshot.get();
+        if (releasedRows != null || current.size() == 0) return;
+        // Released first, so a reader which finds the empty snapshot restores the rows
+        releasedRows = current.release();
+        snapshot.set(ChangeLogSnapshot.EMPTY);
+        projectionSnapshot = null;
+    }
+
+    /**
+     * Drop all the rows of the snapshot, without a copy. The owner must load them again, for
+     * example with {@link #setSnapshot(ChangeLogSnapshot)}. Call it on the main thread.
+     *
+     * @return false if the rows of this adapter are not in a snapshot
+     */
+    public boolean dropRows() {
+        if (snapshot == null) return false;
+        synchronized (this) {
+            releasedRows = null;
+            snapshot.set(ChangeLogSnapshot.EMPTY);
+            projectionSnapshot = null;
+        }
+        notifyDataSetChanged();
+        return true;
+    }
+
+    /**
+     * @return true if the rows are stored in a {@link CompactChangeLog}
+     */
+    public boolean isCompact() {
+        return compactItems != null;
+    }
+
+    /**
+     * @return the compact rows, or null if the rows are stored in a list
+     */
+    public CompactChangeLog getCompactItems() {
+        return compactItems;
     }
 
 
@@ -127,10 +604,10 @@ public class ChangeLogRecyclerViewAdapter extends RecyclerView.Adapter<RecyclerV
     }
 
     private void populateViewHolderRow(ViewHolderRow viewHolder, int position) {
-        ChangeLogRow item = getItem(position);
+        ChangeLogRowView item = getItem(position);
         if (item != null) {
             if (viewHolder.textRow != null) {
-                viewHolder.textRow.setText(Html.fromHtml(item.getChangeText()));
+                viewHolder.textRow.setText(item.getSpannedText());
                 viewHolder.textRow.setMovementMethod(LinkMovementMethod.getInstance());
             }
             if (viewHolder.bulletRow != null) {
@@ -171,7 +648,7 @@ public class ChangeLogRecyclerViewAdapter extends RecyclerView.Adapter<RecyclerV
     }
 
     private void populateViewHolderHeader(ViewHolderHeader viewHolder, int position) {
-        ChangeLogRow item = getItem(position);
+        ChangeLogRowView item = getItem(position);
         if (item != null) {
             if (viewHolder.versionHeader != null) {
                 StringBuilder sb = new StringBuilder();
@@ -180,7 +657,7 @@ public class ChangeLogRecyclerViewAdapter extends RecyclerView.Adapter<RecyclerV
                 if (versionHeaderString != null)
                     sb.append(versionHeaderString);
                 // VersionName text
-                sb.append(item.versionName);
+                sb.append(item.getVersionName());
 
                 viewHolder.versionHeader.setText(sb.toString());
 
@@ -195,8 +672,8 @@ public class ChangeLogRecyclerViewAdapter extends RecyclerView.Adapter<RecyclerV
 
             // ChangeData text
             if (viewHolder.dateHeader != null) {
-                if (item.changeDate != null) {
-                    viewHolder.dateHeader.setText(item.changeDate);
+                if (item.getChangeDate() != null) {
+                    viewHolder.dateHeader.setText(item.getChangeDate());
                     viewHolder.dateHeader.setVisibility(View.VISIBLE);
                 } else {
                     // If item does not have change date, hide TextView
@@ -209,11 +686,22 @@ public class ChangeLogRecyclerViewAdapter extends RecyclerView.Adapter<RecyclerV
 
 
     private boolean isHeader(int position) {
+        if (compactItems != null)
+            return compactItems.isHeader(position);
         return getItem(position).isHeader();
     }
 
-    private ChangeLogRow getItem(int position) {
-        return items.get(position);
+    private ChangeLogRowView getItem(int position) {
+        if (compactItems != null)
+            return cursor.moveTo(position);
+        if (snapshot != null) {
+            ChangeLogSnapshot current = currentSnapshot();
+            if (!isFiltered()) return current.getRow(position);
+            updateProjection(current);
+            int index = projectionFrom + position;
+            return current.getRow(projection != null ? projection[index] : index);
+        }
+        return windowedItems.get(position);
     }
 
 
@@ -227,7 +715,15 @@ public class ChangeLogRecyclerViewAdapter extends RecyclerView.Adapter<RecyclerV
 
     @Override
     public int getItemCount() {
-        return items.size();
+        if (compactItems != null)
+            return compactItems.size();
+        if (snapshot != null) {
+            ChangeLogSnapshot current = currentSnapshot();
+            if (!isFiltered()) return current.size();
+            updateProjection(current);
+            return projectionTo - projectionFrom;
+        }
+        return windowedItems.size();
     }
 
     //-----------------------------------------------------------------------------------
@@ -25,7 +25,7 @@ import androidx.annotation.NonNull;
  * @author James Weber
  */
 @SuppressWarnings("unused")
-public class ChangeLogRow {
+public class ChangeLogRow implements ChangeLogRowView {
 
     /**
      * Default type
@@ -53,6 +53,11 @@ public class ChangeLogRow {
     public static final int NEW = 4;
 
 
+    private static final char MARKUP_OPEN = '[';
+    private static final char MARKUP_CLOSE = ']';
+    private static final char HTML_OPEN = '<';
+    private static final char HTML_CLOSE = '>';
+
     //-------------------------------------------------------------------------------------------------------------------
 
     /**
@@ -97,6 +102,11 @@ public class ChangeLogRow {
      */
     private int type;
 
+    /**
+     * Change text rendered with its markup. It is built on first use.
+     */
+    private CharSequence spannedText;
+
     //-------------------------------------------------------------------------------------------------------------------
 
     /**
@@ -105,10 +115,34 @@ public class ChangeLogRow {
      * @param changeLogText text
      */
     public void parseChangeText(String changeLogText) {
-        if (changeLogText != null) {
-            changeLogText = changeLogText.replaceAll("\\[", "<").replaceAll("\\]", ">");
+        setChangeText(convertMarkup(changeLogText));
+    }
+
+    /**
+     * Replace [ and ] with &lt; and &gt; in a single pass.
+     * A new string is allocated only if the text contains brackets.
+     *
+     * @param text text with [b] [i] tags
+     * @return text with html tags
+     */
+    public static String convertMarkup(String text) {
+        if (text == null) return null;
+
+        int length = text.length();
+        int first = 0;
+        while (first < length) {
+            char c = text.charAt(first);
+            if (c == MARKUP_OPEN || c == MARKUP_CLOSE) break;
+            first++;
         }
-        setChangeText(changeLogText);
+        if (first == length) return text;
+
+        char[] chars = text.toCharArray();
+        for (int i = first; i < length; i++) {
+            if (chars[i] == MARKUP_OPEN) chars[i] = HTML_OPEN;
+            else if (chars[i] == MARKUP_CLOSE) chars[i] = HTML_CLOSE;
+        }
+        return new String(chars);
     }
 
     @NonNull
@@ -130,6 +164,30 @@ public class ChangeLogRow {
                 changeText;
     }
 
+    /**
+     * @param other another row, for example of a newer copy of the file
+     * @return true if the row is the same entry: same version and, for changes, same text
+     */
+    public boolean isSameRow(ChangeLogRow other) {
+        return other != null && header == other.header && versionCode == other.versionCode
+                && equal(versionName, other.versionName)
+                && (header || equal(changeText, other.changeText));
+    }
+
+    /**
+     * @param other another row, for example of a newer copy of the file
+     * @return true if all the fields of the rows are equal
+     */
+    public boolean hasSameContent(ChangeLogRow other) {
+        return isSameRow(other) && equal(changeText, other.changeText)
+                && equal(changeDate, other.changeDate) && type == other.type
+                && bulletedList == other.bulletedList && currentVersion == other.currentVersion;
+    }
+
+    private static boolean equal(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
     //-------------------------------------------------------------------------------------------------------------------
 
 
@@ -157,12 +215,37 @@ public class ChangeLogRow {
         this.currentVersion = currentVersion;
     }
 
+    /**
+     * @return the change text, with the [b] [i] markup converted to html tags by
+     * {@link #parseChangeText(String)} or by the parser
+     */
     public String getChangeText() {
         return changeText;
     }
 
     public void setChangeText(String changeText) {
         this.changeText = changeText;
+        this.spannedText = null;
+    }
+
+    /**
+     * The text is not synchronized: render it on the parsing thread before the row is
+     * published, and then call this only on the main thread.
+     *
+     * @return the change text rendered by {@link ChangeLogMarkup}
+     */
+    public CharSequence getSpannedText() {
+        if (spannedText == null && changeText != null) {
+            spannedText = ChangeLogMarkup.render(changeText);
+        }
+        return spannedText;
+    }
+
+    /**
+     * Release the rendered text. It is rendered again by the next {@link #getSpannedText()}.
+     */
+    public void releaseSpannedText() {
+        spannedText = null;
     }
 
     public String getVersionName() {
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.internal;
+
+/**
+ * Read only view of a changelog row, used by the adapters to bind a position.
+ * <p>
+ * It is implemented by {@link ChangeLogRow} and by the cursor of {@link CompactChangeLog}.
+ *
+ * @author James Weber
+ */
+public interface ChangeLogRowView {
+
+    boolean isHeader();
+
+    boolean isBulletedList();
+
+    boolean isCurrentVersion();
+
+    /**
+     * @return the type, like {@link ChangeLogRow#FIX}
+     */
+    int getLogType();
+
+    String getVersionName();
+
+    int getVersionCode();
+
+    String getChangeDate();
+
+    String getChangeText();
+
+    /**
+     * @return the change text with the markup rendered
+     */
+    CharSequence getSpannedText();
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.internal;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable copy of a {@link ChangeLog}.
+ * <p>
+ * All fields are final, so a snapshot published through a volatile field or an
+ * {@link java.util.concurrent.atomic.AtomicReference} can be read on any thread without locks.
+ * A new version of the changelog is a new snapshot.
+ * <p>
+ * The rows are shared with the parser, and they must not be modified after the snapshot is
+ * created. The indexes are filled lazily, which is safe to repeat. The rendered text of a row
+ * is set by the thread which parses it, before the row is published, and then only by the main
+ * thread.
+ * <p>
+ * Appended snapshots share a growable array: a snapshot reads only its first rows, so a newer
+ * snapshot can write the following ones without copying the array.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public final class ChangeLogSnapshot {
+
+    private static final ChangeLogRow[] NO_ROWS = new ChangeLogRow[0];
+
+    /**
+     * Snapshot without rows
+     */
+    public static final ChangeLogSnapshot EMPTY = new ChangeLogSnapshot(NO_ROWS, true, 0);
+
+    private static final int MIN_CAPACITY = 64;
+
+    private final ChangeLogRow[] rows;
+    private final int size;
+    // Rows written in the shared array, by the last snapshot appended to it
+    private final AtomicInteger used;
+    private final boolean bulletedList;
+    private final int generation;
+    private final List<ChangeLogRow> rowList;
+
+    // Built on first use
+    private volatile ChangeLogTypeIndex typeIndex;
+    private volatile ChangeLogVersionIndex versionIndex;
+
+    private ChangeLogSnapshot(ChangeLogRow[] rows, boolean bulletedList, int generation) {
+        this(rows, rows.length, new AtomicInteger(rows.length), bulletedList, generation);
+    }
+
+    private ChangeLogSnapshot(ChangeLogRow[] rows, int size, AtomicInteger used,
+                              boolean bulletedList, int generation) {
+        this.rows = rows;
+        this.size = size;
+        this.used = used;
+        this.bulletedList = bulletedList;
+        this.generation = generation;
+        this.rowList = new RowList(rows, size);
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * @param changeLog parsed changelog
+     * @return a snapshot of the changelog
+     */
+    public static ChangeLogSnapshot of(ChangeLog changeLog) {
+        if (changeLog == null) return EMPTY;
+        return of(changeLog.getRowList(), changeLog.isBulletedList());
+    }
+
+    /**
+     * @param rows         rows, they are copied
+     * @param bulletedList bulleted list
+     * @return a snapshot of the rows
+     */
+    public static ChangeLogSnapshot of(List<ChangeLogRow> rows, boolean bulletedList) {
+        if (rows == null || rows.isEmpty()) return new ChangeLogSnapshot(NO_ROWS, bulletedList, 1);
+        return new ChangeLogSnapshot(rows.toArray(NO_ROWS), bulletedList, 1);
+    }
+
+    /**
+     * The new rows are written after the rows of this snapshot, in the same array if this is
+     * the last snapshot appended to it and there is room. Otherwise the array is copied with a
+     * larger capacity, so appending a batch costs the size of the batch, on average.
+     *
+     * @param newRows rows to append
+     * @return a new snapshot with the rows of this one followed by the new rows
+     */
+    public ChangeLogSnapshot append(List<ChangeLogRow> newRows) {
+        if (newRows == null || newRows.isEmpty()) return this;
+
+        int newSize = size + newRows.size();
+        ChangeLogRow[] appended;
+        AtomicInteger appendedUsed;
+        // Only one snapshot can take the free part of the array
+        if (newSize <= rows.length && used.compareAndSet(size, newSize)) {
+            appended = rows;
+            appendedUsed = used;
+        } else {
+            appended = new ChangeLogRow[Math.max(newSize, Math.max(size * 2, MIN_CAPACITY))];
+            System.arraycopy(rows, 0, appended, 0, size);
+            appendedUsed = new AtomicInteger(newSize);
+        }
+        for (int i = 0; i < newRows.size(); i++) {
+            appended[size + i] = newRows.get(i);
+        }
+        return new ChangeLogSnapshot(appended, newSize, appendedUsed, bulletedList,
+                generation + 1);
+    }
+
+    //-----------------------------------------------------------------------
+
+    public int size() {
+        return size;
+    }
+
+    public ChangeLogRow getRow(int position) {
+        return rowList.get(position);
+    }
+
+    /**
+     * @return read only list of the rows
+     */
+    public List<ChangeLogRow> getRows() {
+        return rowList;
+    }
+
+    /**
+     * @return a lazy query over the rows, which can be used on any thread
+     */
+    public ChangeLogQuery query() {
+        return new ChangeLogQuery(rowList);
+    }
+
+    /**
+     * The index is built on the first call, so call it on a background thread the first time.
+     *
+     * @return the positions of the rows of each type and of each version
+     */
+    public ChangeLogTypeIndex getTypeIndex() {
+        ChangeLogTypeIndex index = typeIndex;
+        if (index == null) {
+            index = ChangeLogTypeIndex.build(rowList);
+            typeIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * The index is built on the first call, so call it on a background thread the first time.
+     *
+     * @return the versions sorted by versionCode
+     */
+    public ChangeLogVersionIndex getVersionIndex() {
+        ChangeLogVersionIndex index = versionIndex;
+        if (index == null) {
+            index = ChangeLogVersionIndex.build(rowList);
+            versionIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Copy the rows in a {@link CompactChangeLog}, to release the {@link ChangeLogRow} objects
+     * under memory pressure. The indexes are kept, since the positions don't change.
+     *
+     * @return the released rows
+     */
+    Released release() {
+        CompactChangeLog compact = new CompactChangeLog(size);
+        compact.setBulletedList(bulletedList);
+        compact.addAll(rowList);
+        compact.trimToSize();
+        return new Released(compact, bulletedList, generation, typeIndex, versionIndex);
+    }
+
+    /**
+     * @param other another snapshot
+     * @return true if the snapshots have the same rows, in the same order
+     */
+    public boolean hasSameRows(ChangeLogSnapshot other) {
+        if (other == this) return true;
+        if (other == null || other.size != size) return false;
+        for (int i = 0; i < size; i++) {
+            if (rows[i] != other.rows[i]) return false;
+        }
+        return true;
+    }
+
+    public boolean isBulletedList() {
+        return bulletedList;
+    }
+
+    /**
+     * @return a number which grows with each appended version of the snapshot
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "bulletedList=" + bulletedList + ",rows=" + size + ",generation=" + generation;
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Rows of a snapshot released by {@link #release()}
+     */
+    static final class Released {
+
+        private final CompactChangeLog rows;
+        private final boolean bulletedList;
+        private final int generation;
+        private final ChangeLogTypeIndex typeIndex;
+        private final ChangeLogVersionIndex versionIndex;
+
+        private Released(CompactChangeLog rows, boolean bulletedList, int generation,
+                         ChangeLogTypeIndex typeIndex, ChangeLogVersionIndex versionIndex) {
+            this.rows = rows;
+            this.bulletedList = bulletedList;
+            this.generation = generation;
+            this.typeIndex = typeIndex;
+            this.versionIndex = versionIndex;
+        }
+
+        /**
+         * @return a snapshot with new rows equal to the released ones
+         */
+        ChangeLogSnapshot restore() {
+            ChangeLogRow[] restored = new ChangeLogRow[rows.size()];
+            for (int i = 0; i < restored.length; i++) {
+                restored[i] = rows.getRow(i);
+            }
+            ChangeLogSnapshot snapshot = new ChangeLogSnapshot(restored, bulletedList, generation);
+            snapshot.typeIndex = typeIndex;
+            snapshot.versionIndex = versionIndex;
+            return snapshot;
+        }
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Read only list over the first rows of the array
+     */
+    private static final class RowList extends AbstractList<ChangeLogRow> implements RandomAccess {
+
+        private final ChangeLogRow[] rows;
+        private final int size;
+
+        RowList(ChangeLogRow[] rows, int size) {
+            this.rows = rows;
+            this.size = size;
+        }
+
+        @Override
+        public ChangeLogRow get(int index) {
+            if (index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return rows[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Positions of the rows of each type and of each version, computed once for a
+ * {@link ChangeLogSnapshot}.
+ * <p>
+ * A projection is the sorted array of the positions shown for a set of types: the rows with
+ * these types and the headers of their versions. The projection of a single type is built with
+ * the index, the others are merged on first use and then cached.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public final class ChangeLogTypeIndex {
+
+    private static final int TYPE_COUNT = ChangeLogRow.NEW + 1;
+
+    /**
+     * Mask of all the types
+     */
+    public static final int ALL_TYPES = (1 << TYPE_COUNT) - 1;
+
+    private final int rowCount;
+    private final int[] versionStarts;
+    private final int[][] typePositions;
+    private final int[] typeRowCounts;
+    private final ConcurrentHashMap<Integer, int[]> projections = new ConcurrentHashMap<>();
+
+    private ChangeLogTypeIndex(int rowCount, int[] versionStarts, int[][] typePositions,
+                               int[] typeRowCounts) {
+        this.rowCount = rowCount;
+        this.versionStarts = versionStarts;
+        this.typePositions = typePositions;
+        this.typeRowCounts = typeRowCounts;
+        for (int type = 0; type < TYPE_COUNT; type++) {
+            projections.put(1 << type, typePositions[type]);
+        }
+    }
+
+    /**
+     * Build the index in a single pass over the rows
+     *
+     * @param rows rows, which must not change
+     * @return the index
+     */
+    public static ChangeLogTypeIndex build(List<ChangeLogRow> rows) {
+        int size = rows.size();
+        IntArray versionStarts = new IntArray(size / 8);
+        IntArray[] positions = new IntArray[TYPE_COUNT];
+        int[] lastHeader = new int[TYPE_COUNT];
+        int[] rowCounts = new int[TYPE_COUNT];
+        for (int type = 0; type < TYPE_COUNT; type++) {
+            positions[type] = new IntArray(size / TYPE_COUNT);
+            lastHeader[type] = -1;
+        }
+
+        int header = -1;
+        for (int position = 0; position < size; position++) {
+            ChangeLogRow row = rows.get(position);
+            if (row.isHeader()) {
+                header = position;
+                versionStarts.add(position);
+                continue;
+            }
+            int type = row.getLogType();
+            if (type < 0 || type >= TYPE_COUNT) continue;
+
+            // The header is shown with the first row of its version
+            if (header >= 0 && lastHeader[type] != header) {
+                positions[type].add(header);
+                lastHeader[type] = header;
+            }
+            positions[type].add(position);
+            rowCounts[type]++;
+        }
+
+        int[][] typePositions = new int[TYPE_COUNT][];
+        for (int type = 0; type < TYPE_COUNT; type++) {
+            typePositions[type] = positions[type].toArray();
+        }
+        return new ChangeLogTypeIndex(size, versionStarts.toArray(), typePositions, rowCounts);
+    }
+
+    //-----------------------------------------------------------------------
+    // Types
+    //-----------------------------------------------------------------------
+
+    /**
+     * @param types types, like {@link ChangeLogRow#FIX}
+     * @return the mask for {@link #getPositions(int)}
+     */
+    public static int maskOf(int... types) {
+        int mask = 0;
+        for (int type : types) {
+            if (type >= 0 && type < TYPE_COUNT) mask |= 1 << type;
+        }
+        return mask;
+    }
+
+    /**
+     * The positions shown for a set of types, with the headers of their versions.
+     * Don't modify the array.
+     *
+     * @param typeMask mask of the types, see {@link #maskOf(int...)}
+     * @return the sorted positions, or null for all the rows
+     */
+    public int[] getPositions(int typeMask) {
+        typeMask &= ALL_TYPES;
+        if (typeMask == ALL_TYPES) return null;
+
+        int[] positions = projections.get(typeMask);
+        if (positions == null) {
+            positions = merge(typeMask);
+            int[] previous = projections.putIfAbsent(typeMask, positions);
+            if (previous != null) positions = previous;
+        }
+        return positions;
+    }
+
+    /**
+     * @return number of change rows with a type, headers excluded
+     */
+    public int getRowCount(int type) {
+        return type >= 0 && type < TYPE_COUNT ? typeRowCounts[type] : 0;
+    }
+
+    /**
+     * Merge the sorted projections of the types. Each header is kept once.
+     */
+    private int[] merge(int typeMask) {
+        int total = 0;
+        for (int type = 0; type < TYPE_COUNT; type++) {
+            if ((typeMask & 1 << type) != 0) total += typePositions[type].length;
+        }
+
+        int[] merged = new int[total];
+        int[] next = new int[TYPE_COUNT];
+        int count = 0;
+        while (true) {
+            int min = Integer.MAX_VALUE;
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                if ((typeMask & 1 << type) != 0 && next[type] < typePositions[type].length)
+                    min = Math.min(min, typePositions[type][next[type]]);
+            }
+            if (min == Integer.MAX_VALUE) break;
+
+            merged[count++] = min;
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                if ((typeMask & 1 << type) != 0 && next[type] < typePositions[type].length
+                        && typePositions[type][next[type]] == min)
+                    next[type]++;
+            }
+        }
+        return count == total ? merged : Arrays.copyOf(merged, count);
+    }
+
+    //-----------------------------------------------------------------------
+    // Versions
+    //-----------------------------------------------------------------------
+
+    public int getVersionCount() {
+        return versionStarts.length;
+    }
+
+    /**
+     * @param version version, in document order
+     * @return position of the header of the version
+     */
+    public int getVersionStart(int version) {
+        return versionStarts[version];
+    }
+
+    /**
+     * @param version version, in document order
+     * @return number of rows of the version, header included
+     */
+    public int getVersionRowCount(int version) {
+        int end = version + 1 < versionStarts.length ? versionStarts[version + 1] : rowCount;
+        return end - versionStarts[version];
+    }
+
+    /**
+     * @param position position of a row
+     * @return the version of the row, or -1 if the row is before the first header
+     */
+    public int getVersionOf(int position) {
+        int index = Arrays.binarySearch(versionStarts, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Growable array of int
+     */
+    private static final class IntArray {
+
+        private int[] values;
+        private int size;
+
+        IntArray(int capacity) {
+            values = new int[Math.max(capacity, 8)];
+        }
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size + (size >> 1) + 1);
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
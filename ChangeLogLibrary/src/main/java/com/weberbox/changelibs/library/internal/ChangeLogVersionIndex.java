@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The versions of a changelog, sorted by versionCode for binary search lookups.
+ * <p>
+ * Changelogs usually list the versions from the newest to the oldest, so the versions newer
+ * than a versionCode are a range of rows, found in O(log n). When the file is not sorted the
+ * rows are collected in a single pass.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public final class ChangeLogVersionIndex {
+
+    /**
+     * No versionCode, to disable the "since" filters
+     */
+    public static final int NO_VERSION_CODE = Integer.MIN_VALUE;
+
+    /**
+     * The versionCodes don't follow the document order
+     */
+    public static final int ORDER_UNSORTED = 0;
+
+    /**
+     * The newest version is the first one in the file
+     */
+    public static final int ORDER_DESCENDING = 1;
+
+    /**
+     * The newest version is the last one in the file
+     */
+    public static final int ORDER_ASCENDING = 2;
+
+    private final int rowCount;
+
+    // In document order
+    private final int[] headerPositions;
+    private final int[] versionCodes;
+
+    // By versionCode
+    private final int[] sortedCodes;
+    private final int[] sortedVersions;
+
+    private final int order;
+
+    private ChangeLogVersionIndex(int rowCount, int[] headerPositions, int[] versionCodes) {
+        this.rowCount = rowCount;
+        this.headerPositions = headerPositions;
+        this.versionCodes = versionCodes;
+
+        int count = versionCodes.length;
+        boolean descending = true;
+        boolean ascending = true;
+        for (int v = 1; v < count; v++) {
+            if (versionCodes[v] > versionCodes[v - 1]) descending = false;
+            if (versionCodes[v] < versionCodes[v - 1]) ascending = false;
+        }
+        order = descending ? ORDER_DESCENDING : ascending ? ORDER_ASCENDING : ORDER_UNSORTED;
+
+        // Sort the versions by code. Each entry packs the code and the version.
+        long[] entries = new long[count];
+        for (int v = 0; v < count; v++) {
+            entries[v] = ((long) versionCodes[v] << 32) | v;
+        }
+        Arrays.sort(entries);
+        sortedCodes = new int[count];
+        sortedVersions = new int[count];
+        for (int i = 0; i < count; i++) {
+            sortedCodes[i] = (int) (entries[i] >> 32);
+            sortedVersions[i] = (int) entries[i];
+        }
+    }
+
+    /**
+     * Build the index of the headers
+     *
+     * @param rows rows, which must not change
+     * @return the index
+     */
+    public static ChangeLogVersionIndex build(List<ChangeLogRow> rows) {
+        int size = rows.size();
+        int count = 0;
+        int[] positions = new int[16];
+        int[] codes = new int[16];
+        for (int position = 0; position < size; position++) {
+            ChangeLogRow row = rows.get(position);
+            if (row == null || !row.isHeader()) continue;
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                codes = Arrays.copyOf(codes, count * 2);
+            }
+            positions[count] = position;
+            codes[count] = row.getVersionCode();
+            count++;
+        }
+        return new ChangeLogVersionIndex(size, Arrays.copyOf(positions, count),
+                Arrays.copyOf(codes, count));
+    }
+
+    //-----------------------------------------------------------------------
+
+    public int getVersionCount() {
+        return headerPositions.length;
+    }
+
+    /**
+     * @return number of rows when the index was built
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return {@link #ORDER_DESCENDING}, {@link #ORDER_ASCENDING} or {@link #ORDER_UNSORTED}
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * @param version version, in document order
+     * @return position of its header
+     */
+    public int getHeaderPosition(int version) {
+        return headerPositions[version];
+    }
+
+    /**
+     * @param version version, in document order
+     * @return its versionCode
+     */
+    public int getVersionCode(int version) {
+        return versionCodes[version];
+    }
+
+    /**
+     * @return the highest versionCode, or {@link #NO_VERSION_CODE} without versions
+     */
+    public int getLatestVersionCode() {
+        return sortedCodes.length > 0 ? sortedCodes[sortedCodes.length - 1] : NO_VERSION_CODE;
+    }
+
+    //-----------------------------------------------------------------------
+    // Lookups
+    //-----------------------------------------------------------------------
+
+    /**
+     * @param versionCode versionCode
+     * @return the version with this code, in document order, or -1
+     */
+    public int findVersion(int versionCode) {
+        int index = lowerBound(sortedCodes, versionCode);
+        if (index < sortedCodes.length && sortedCodes[index] == versionCode)
+            return sortedVersions[index];
+        return -1;
+    }
+
+    /**
+     * @param versionCode versionCode
+     * @return the position of the header with this code, or -1
+     */
+    public int findHeaderPosition(int versionCode) {
+        int version = findVersion(versionCode);
+        return version >= 0 ? headerPositions[version] : -1;
+    }
+
+    /**
+     * @param versionCode versionCode, excluded
+     * @return number of versions with a higher code
+     */
+    public int countNewerVersions(int versionCode) {
+        if (versionCode == NO_VERSION_CODE) return sortedCodes.length;
+        return sortedCodes.length - upperBound(sortedCodes, versionCode);
+    }
+
+    /**
+     * The rows of the versions newer than a versionCode, headers included, when they are
+     * contiguous. It is O(log n).
+     *
+     * @param versionCode versionCode, excluded
+     * @return {from, to} with to excluded, or null if the file is not sorted by versionCode
+     */
+    public int[] getNewerRowRange(int versionCode) {
+        int count = headerPositions.length;
+        int newer = countNewerVersions(versionCode);
+        if (newer == 0) return new int[]{0, 0};
+        if (newer == count) return new int[]{headerPositions[0], rowCount};
+
+        if (order == ORDER_DESCENDING) {
+            return new int[]{headerPositions[0], headerPositions[newer]};
+        } else if (order == ORDER_ASCENDING) {
+            return new int[]{headerPositions[count - newer], rowCount};
+        }
+        return null;
+    }
+
+    /**
+     * The positions of the rows of the versions newer than a versionCode, headers included.
+     * Prefer {@link #getNewerRowRange(int)} when the file is sorted.
+     *
+     * @param versionCode versionCode, excluded
+     * @return the sorted positions
+     */
+    public int[] getNewerPositions(int versionCode) {
+        int[] range = getNewerRowRange(versionCode);
+        if (range != null) {
+            int[] positions = new int[range[1] - range[0]];
+            for (int i = 0; i < positions.length; i++) positions[i] = range[0] + i;
+            return positions;
+        }
+
+        int[] positions = new int[rowCount];
+        int count = 0;
+        for (int v = 0; v < headerPositions.length; v++) {
+            if (versionCodes[v] <= versionCode) continue;
+            int end = v + 1 < headerPositions.length ? headerPositions[v + 1] : rowCount;
+            for (int position = headerPositions[v]; position < end; position++) {
+                positions[count++] = position;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * @return the first index with a value &gt;= key
+     */
+    static int lowerBound(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return the first index with a value &gt; key
+     */
+    static int upperBound(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
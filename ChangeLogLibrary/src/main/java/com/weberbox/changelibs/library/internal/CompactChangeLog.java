@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.internal;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * ChangeLog model which stores the rows in columns of primitives.
+ * <p>
+ * The type and the flags of a row are packed in a byte, and the texts are indexes in a string
+ * table shared by all rows, so a version name or a date is stored once. No {@link ChangeLogRow}
+ * is kept: the rows are read through a {@link Cursor}, which can be moved to any position
+ * without allocations.
+ * <p>
+ * Rows can only be appended. It is not thread safe.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class CompactChangeLog {
+
+    private static final int NO_STRING = -1;
+
+    private static final int TYPE_MASK = 0x07;
+    private static final int FLAG_HEADER = 0x08;
+    private static final int FLAG_BULLETED_LIST = 0x10;
+    private static final int FLAG_CURRENT_VERSION = 0x20;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int SPANNED_CACHE_SIZE = 64;
+
+    //-----------------------------------------------------------------------
+    // Columns
+    //-----------------------------------------------------------------------
+
+    private int size;
+    private byte[] flags;
+    private int[] versionCodes;
+    private int[] versionNames;
+    private int[] changeDates;
+    private int[] changeTexts;
+
+    //-----------------------------------------------------------------------
+    // String table
+    //-----------------------------------------------------------------------
+
+    private String[] strings;
+    private int stringCount;
+
+    /**
+     * Index of the strings, used while appending. Dropped by {@link #trimToSize()}.
+     */
+    private HashMap<String, Integer> stringIndex;
+
+    //-----------------------------------------------------------------------
+    // Rendered texts, by string index
+    //-----------------------------------------------------------------------
+
+    private final int[] spannedKeys = new int[SPANNED_CACHE_SIZE];
+    private final CharSequence[] spannedTexts = new CharSequence[SPANNED_CACHE_SIZE];
+
+    private boolean bulletedList;
+
+    //-----------------------------------------------------------------------
+    // Constructors
+    //-----------------------------------------------------------------------
+
+    public CompactChangeLog() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public CompactChangeLog(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        flags = new byte[capacity];
+        versionCodes = new int[capacity];
+        versionNames = new int[capacity];
+        changeDates = new int[capacity];
+        changeTexts = new int[capacity];
+        strings = new String[capacity];
+        Arrays.fill(spannedKeys, NO_STRING);
+    }
+
+    /**
+     * Create a compact copy of a {@link ChangeLog}
+     *
+     * @param changeLog changelog
+     * @return the compact changelog
+     */
+    public static CompactChangeLog from(ChangeLog changeLog) {
+        CompactChangeLog compact = new CompactChangeLog(changeLog.getRowCount());
+        compact.setBulletedList(changeLog.isBulletedList());
+        compact.addAll(changeLog.getRowList());
+        compact.trimToSize();
+        return compact;
+    }
+
+    //-----------------------------------------------------------------------
+    // Append
+    //-----------------------------------------------------------------------
+
+    /**
+     * Append a row
+     *
+     * @param row row
+     */
+    public void add(ChangeLogRowView row) {
+        if (row == null) return;
+        if (size == flags.length) grow(size + 1);
+
+        int packed = row.getLogType() & TYPE_MASK;
+        if (row.isHeader()) packed |= FLAG_HEADER;
+        if (row.isBulletedList()) packed |= FLAG_BULLETED_LIST;
+        if (row.isCurrentVersion()) packed |= FLAG_CURRENT_VERSION;
+
+        flags[size] = (byte) packed;
+        versionCodes[size] = row.getVersionCode();
+        versionNames[size] = addString(row.getVersionName());
+        changeDates[size] = addString(row.getChangeDate());
+        changeTexts[size] = addString(row.getChangeText());
+        size++;
+    }
+
+    /**
+     * Append the rows
+     *
+     * @param rows rows
+     */
+    public void addAll(List<? extends ChangeLogRowView> rows) {
+        if (rows == null) return;
+        if (size + rows.size() > flags.length) grow(size + rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            add(rows.get(i));
+        }
+    }
+
+    /**
+     * Release the spare capacity and the index of the strings, once all rows are added
+     */
+    public void trimToSize() {
+        if (flags.length > size) {
+            int capacity = Math.max(size, 1);
+            flags = Arrays.copyOf(flags, capacity);
+            versionCodes = Arrays.copyOf(versionCodes, capacity);
+            versionNames = Arrays.copyOf(versionNames, capacity);
+            changeDates = Arrays.copyOf(changeDates, capacity);
+            changeTexts = Arrays.copyOf(changeTexts, capacity);
+        }
+        if (strings.length > stringCount) {
+            strings = Arrays.copyOf(strings, Math.max(stringCount, 1));
+        }
+        stringIndex = null;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, flags.length + (flags.length >> 1));
+        flags = Arrays.copyOf(flags, capacity);
+        versionCodes = Arrays.copyOf(versionCodes, capacity);
+        versionNames = Arrays.copyOf(versionNames, capacity);
+        changeDates = Arrays.copyOf(changeDates, capacity);
+        changeTexts = Arrays.copyOf(changeTexts, capacity);
+    }
+
+    private int addString(String value) {
+        if (value == null) return NO_STRING;
+
+        if (stringIndex == null) {
+            // Rebuilt after trimToSize
+            stringIndex = new HashMap<>(Math.max(stringCount * 2, 16));
+            for (int i = 0; i < stringCount; i++) stringIndex.put(strings[i], i);
+        }
+
+        Integer index = stringIndex.get(value);
+        if (index != null) return index;
+
+        if (stringCount == strings.length) {
+            strings = Arrays.copyOf(strings, Math.max(stringCount + (stringCount >> 1), 16));
+        }
+        strings[stringCount] = value;
+        stringIndex.put(value, stringCount);
+        return stringCount++;
+    }
+
+    private String getString(int index) {
+        return index == NO_STRING ? null : strings[index];
+    }
+
+    //-----------------------------------------------------------------------
+    // Read by position
+    //-----------------------------------------------------------------------
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isHeader(int position) {
+        return (flags[checkPosition(position)] & FLAG_HEADER) != 0;
+    }
+
+    public boolean isBulletedList(int position) {
+        return (flags[checkPosition(position)] & FLAG_BULLETED_LIST) != 0;
+    }
+
+    public boolean isCurrentVersion(int position) {
+        return (flags[checkPosition(position)] & FLAG_CURRENT_VERSION) != 0;
+    }
+
+    public int getLogType(int position) {
+        return flags[checkPosition(position)] & TYPE_MASK;
+    }
+
+    public int getVersionCode(int position) {
+        return versionCodes[checkPosition(position)];
+    }
+
+    public String getVersionName(int position) {
+        return getString(versionNames[checkPosition(position)]);
+    }
+
+    public String getChangeDate(int position) {
+        return getString(changeDates[checkPosition(position)]);
+    }
+
+    public String getChangeText(int position) {
+        return getString(changeTexts[checkPosition(position)]);
+    }
+
+    /**
+     * The last rendered texts are cached, so the rows on screen are not rendered again on
+     * each bind.
+     *
+     * @return the change text with the markup rendered
+     */
+    public CharSequence getSpannedText(int position) {
+        int index = changeTexts[checkPosition(position)];
+        if (index == NO_STRING) return null;
+
+        int slot = index % SPANNED_CACHE_SIZE;
+        if (spannedKeys[slot] != index) {
+            spannedTexts[slot] = ChangeLogMarkup.render(strings[index]);
+            spannedKeys[slot] = index;
+        }
+        return spannedTexts[slot];
+    }
+
+    /**
+     * Release the cached rendered texts
+     */
+    public void clearSpannedCache() {
+        Arrays.fill(spannedKeys, NO_STRING);
+        Arrays.fill(spannedTexts, null);
+    }
+
+    /**
+     * Create a full {@link ChangeLogRow} for a position
+     *
+     * @return a new row
+     */
+    public ChangeLogRow getRow(int position) {
+        ChangeLogRow row = isHeader(position) ? new ChangeLogRowHeader() : new ChangeLogRow();
+        row.setBulletedList(isBulletedList(position));
+        row.setCurrentVersion(isCurrentVersion(position));
+        row.setLogType(getLogType(position));
+        row.setVersionCode(getVersionCode(position));
+        row.setVersionName(getVersionName(position));
+        row.setChangeDate(getChangeDate(position));
+        row.setChangeText(getChangeText(position));
+        return row;
+    }
+
+    private int checkPosition(int position) {
+        if (position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+        return position;
+    }
+
+    //-----------------------------------------------------------------------
+
+    public boolean isBulletedList() {
+        return bulletedList;
+    }
+
+    public void setBulletedList(boolean bulletedList) {
+        this.bulletedList = bulletedList;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "bulletedList=" + bulletedList + ",rows=" + size + ",strings=" + stringCount;
+    }
+
+    //-----------------------------------------------------------------------
+    // Cursor
+    //-----------------------------------------------------------------------
+
+    /**
+     * @return a new cursor, before the first row
+     */
+    public Cursor newCursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Movable {@link ChangeLogRowView} over the rows
+     */
+    public class Cursor implements ChangeLogRowView {
+
+        private int position = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * @param position position of the row
+         * @return this cursor
+         */
+        public Cursor moveTo(int position) {
+            this.position = checkPosition(position);
+            return this;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        @Override
+        public boolean isHeader() {
+            return CompactChangeLog.this.isHeader(position);
+        }
+
+        @Override
+        public boolean isBulletedList() {
+            return CompactChangeLog.this.isBulletedList(position);
+        }
+
+        @Override
+        public boolean isCurrentVersion() {
+            return CompactChangeLog.this.isCurrentVersion(position);
+        }
+
+        @Override
+        public int getLogType() {
+            return CompactChangeLog.this.getLogType(position);
+        }
+
+        @Override
+        public String getVersionName() {
+            return CompactChangeLog.this.getVersionName(position);
+        }
+
+        @Override
+        public int getVersionCode() {
+            return CompactChangeLog.this.getVersionCode(position);
+        }
+
+        @Override
+        public String getChangeDate() {
+            return CompactChangeLog.this.getChangeDate(position);
+        }
+
+        @Override
+        public String getChangeText() {
+            return CompactChangeLog.this.getChangeText(position);
+        }
+
+        @Override
+        public CharSequence getSpannedText() {
+            return CompactChangeLog.this.getSpannedText(position);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.internal;
+
+import android.util.Log;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read-only list of changelog rows where only the versions near the visible window are kept
+ * in memory.
+ * <p>
+ * Versions are loaded on demand, in blocks, by a {@link VersionLoader} on a background
+ * executor: {@link #get(int)} never reads the file. A version which is not loaded yet is
+ * returned as empty placeholder rows, and the {@link OnVersionsLoadedListener} is called when
+ * its rows are ready. The least recently used versions are evicted when more than
+ * maxVersions are loaded. A version which fails to load keeps its placeholder rows, and it is
+ * not loaded again until the structure is set again with {@link #setRowCounts(int[])}.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class WindowedRowList extends AbstractList<ChangeLogRow> implements RandomAccess {
+
+    private static final String TAG = "WindowedRowList";
+
+    /**
+     * Default number of versions loaded together
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 8;
+
+    private final VersionLoader loader;
+    private final Executor executor;
+    private final int maxVersions;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /**
+     * Position of each version header, in document order
+     */
+    private int[] versionStarts = new int[0];
+
+    /**
+     * Number of rows of each version, header excluded
+     */
+    private int[] rowCounts = new int[0];
+
+    private int size;
+
+    /**
+     * Loaded versions, in access order
+     */
+    private final LinkedHashMap<Integer, List<ChangeLogRow>> versions;
+
+    /**
+     * Versions being loaded in background
+     */
+    private final Set<Integer> loadingVersions = new HashSet<>();
+
+    /**
+     * Versions which failed to load, so they are not read again on each bind
+     */
+    private final Set<Integer> failedVersions = new HashSet<>();
+
+    /**
+     * Incremented when the structure changes, so older loads are not stored
+     */
+    private int generation;
+
+    private final AtomicBoolean prefetching = new AtomicBoolean(false);
+
+    private OnVersionsLoadedListener onVersionsLoadedListener;
+
+    /**
+     * Rows returned for the positions which are not loaded yet
+     */
+    private final ChangeLogRowHeader placeholderHeader = new ChangeLogRowHeader();
+    private final ChangeLogRow placeholderRow = emptyRow();
+
+    //-----------------------------------------------------------------------
+    // Constructors
+    //-----------------------------------------------------------------------
+
+    /**
+     * @param loader      loader for a range of versions
+     * @param maxVersions max number of versions kept in memory
+     * @param executor    executor of the loads, never the main thread
+     */
+    public WindowedRowList(VersionLoader loader, int maxVersions, Executor executor) {
+        this.loader = loader;
+        this.executor = executor;
+        this.maxVersions = Math.max(1, maxVersions);
+        placeholderHeader.setVersionName("");
+        this.versions = new LinkedHashMap<Integer, List<ChangeLogRow>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<ChangeLogRow>> eldest) {
+                return size() > WindowedRowList.this.maxVersions;
+            }
+        };
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Set the structure of the changelog. All loaded versions are discarded.
+     *
+     * @param rowCounts number of rows of each version, header excluded
+     */
+    public synchronized void setRowCounts(int[] rowCounts) {
+        this.rowCounts = Arrays.copyOf(rowCounts, rowCounts.length);
+        this.versionStarts = new int[rowCounts.length];
+        int position = 0;
+        for (int i = 0; i < rowCounts.length; i++) {
+            versionStarts[i] = position;
+            position += rowCounts[i] + 1;
+        }
+        size = position;
+        versions.clear();
+        loadingVersions.clear();
+        failedVersions.clear();
+        generation++;
+    }
+
+    /**
+     * Return the row at a position. If its version is not loaded, a placeholder row is
+     * returned and the version is loaded in background.
+     */
+    @Override
+    public synchronized ChangeLogRow get(int position) {
+        if (position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+
+        int version = versionOf(position);
+        List<ChangeLogRow> rows = versions.get(version);
+        if (rows == null) {
+            loadAround(version);
+            return position == versionStarts[version] ? placeholderHeader : placeholderRow;
+        }
+        return rows.get(position - versionStarts[version]);
+    }
+
+    /**
+     * @param position position
+     * @return true if the row at the position is loaded
+     */
+    public synchronized boolean isLoaded(int position) {
+        return position >= 0 && position < size && versions.containsKey(versionOf(position));
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Load the versions between two positions, if they are not loaded.
+     * It is meant to be called on a background thread; concurrent calls are ignored.
+     *
+     * @param fromPosition first position
+     * @param toPosition   last position
+     */
+    public void prefetch(int fromPosition, int toPosition) {
+        if (!prefetching.compareAndSet(false, true)) return;
+        try {
+            int from;
+            int to;
+            int loadGeneration;
+            synchronized (this) {
+                if (size == 0) return;
+                from = versionOf(Math.max(0, fromPosition));
+                to = versionOf(Math.min(size - 1, toPosition));
+                while (from <= to && isLoadedOrLoading(from)) from++;
+                while (to >= from && isLoadedOrLoading(to)) to--;
+                to = Math.min(to, from + maxVersions - 1);
+                loadGeneration = generation;
+                for (int i = from; i <= to; i++) {
+                    loadingVersions.add(i);
+                }
+            }
+            if (from <= to) loadBlock(from, to - from + 1, loadGeneration);
+        } finally {
+            prefetching.set(false);
+        }
+    }
+
+    /**
+     * @param fromPosition first position
+     * @param toPosition   last position
+     * @return true if {@link #prefetch(int, int)} has nothing to load between the positions
+     */
+    public synchronized boolean isPrefetched(int fromPosition, int toPosition) {
+        if (size == 0) return true;
+        int from = versionOf(Math.max(0, fromPosition));
+        int to = versionOf(Math.min(size - 1, toPosition));
+        for (int i = from; i <= to; i++) {
+            if (!isLoadedOrLoading(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Release all the loaded versions. They are loaded again when they are read.
+     */
+    public synchronized void trim() {
+        versions.clear();
+    }
+
+    /**
+     * @return number of versions in memory
+     */
+    public synchronized int getLoadedVersionCount() {
+        return versions.size();
+    }
+
+    //-----------------------------------------------------------------------
+
+    private int versionOf(int position) {
+        int index = Arrays.binarySearch(versionStarts, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * @return true if the version must not be loaded: it is loaded, loading or it failed
+     */
+    private boolean isLoadedOrLoading(int version) {
+        return versions.containsKey(version) || loadingVersions.contains(version)
+                || failedVersions.contains(version);
+    }
+
+    /**
+     * Start the background load of a block of missing versions around the version
+     */
+    private void loadAround(int version) {
+        if (loadingVersions.contains(version) || failedVersions.contains(version)) return;
+
+        // The block must not evict itself
+        int block = Math.min(blockSize, maxVersions);
+        int half = Math.max(1, block / 2);
+        int from = version;
+        while (from > 0 && version - from < half && !isLoadedOrLoading(from - 1)) from--;
+        int to = version;
+        while (to < rowCounts.length - 1 && to - from + 1 < block
+                && !isLoadedOrLoading(to + 1)) to++;
+
+        int first = from;
+        int count = to - from + 1;
+        int loadGeneration = generation;
+        for (int i = first; i <= to; i++) {
+            loadingVersions.add(i);
+        }
+        executor.execute(() -> loadBlock(first, count, loadGeneration));
+    }
+
+    /**
+     * Load a block of versions on the current thread, store it and notify the listener
+     */
+    private void loadBlock(int from, int count, int loadGeneration) {
+        List<List<ChangeLogRow>> loaded = load(from, count);
+        int fromPosition;
+        int rowCount;
+        OnVersionsLoadedListener listener;
+        synchronized (this) {
+            // The structure changed while loading
+            if (loadGeneration != generation) return;
+            for (int i = from; i < from + count; i++) {
+                loadingVersions.remove(i);
+                if (loaded == null) failedVersions.add(i);
+            }
+            if (loaded == null) return;
+            store(from, loaded);
+            int to = Math.min(from + count, rowCounts.length);
+            fromPosition = versionStarts[from];
+            rowCount = (to < rowCounts.length ? versionStarts[to] : size) - fromPosition;
+            listener = onVersionsLoadedListener;
+        }
+        if (listener != null) listener.onVersionsLoaded(fromPosition, rowCount);
+    }
+
+    private List<List<ChangeLogRow>> load(int from, int count) {
+        try {
+            List<List<ChangeLogRow>> loaded = new ArrayList<>(count);
+            loaded.addAll(loader.loadVersions(from, count));
+            return loaded;
+        } catch (Exception e) {
+            Log.e(TAG, "Error while loading versions " + from + "-" + (from + count - 1), e);
+            return null;
+        }
+    }
+
+    private void store(int from, List<List<ChangeLogRow>> loaded) {
+        if (loaded == null) return;
+        for (int i = 0; i < loaded.size() && from + i < rowCounts.length; i++) {
+            versions.put(from + i, fit(from + i, loaded.get(i)));
+        }
+    }
+
+    /**
+     * The rows must match the structure, otherwise positions would be wrong
+     */
+    private List<ChangeLogRow> fit(int version, List<ChangeLogRow> rows) {
+        int expected = rowCounts[version] + 1;
+        if (rows.size() == expected)
+            return rows instanceof RandomAccess ? rows : new ArrayList<>(rows);
+
+        Log.w(TAG, "Version " + version + " has " + rows.size() + " rows, " + expected +
+                " expected");
+        List<ChangeLogRow> fitted = new ArrayList<>(expected);
+        for (int i = 0; i < expected; i++) {
+            if (i < rows.size()) fitted.add(rows.get(i));
+            else fitted.add(emptyRow());
+        }
+        return fitted;
+    }
+
+    private static ChangeLogRow emptyRow() {
+        ChangeLogRow row = new ChangeLogRow();
+        row.setChangeText("");
+        return row;
+    }
+
+    //-----------------------------------------------------------------------
+    // Loader
+    //-----------------------------------------------------------------------
+
+    /**
+     * Loader for a range of versions
+     */
+    public interface VersionLoader {
+
+        /**
+         * @param from  first version, in document order
+         * @param count number of versions
+         * @return the rows of each version, header first
+         * @throws Exception exception
+         */
+        List<? extends List<ChangeLogRow>> loadVersions(int from, int count) throws Exception;
+    }
+
+    /**
+     * Listener of the versions loaded in background
+     */
+    public interface OnVersionsLoadedListener {
+
+        /**
+         * Called on the loading thread
+         *
+         * @param fromPosition position of the first loaded row
+         * @param count        number of loaded rows
+         */
+        void onVersionsLoaded(int fromPosition, int count);
+    }
+
+    //-----------------------------------------------------------------------
+    // Getter and Setter
+    //-----------------------------------------------------------------------
+
+    public int getMaxVersions() {
+        return maxVersions;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    public synchronized void setOnVersionsLoadedListener(OnVersionsLoadedListener listener) {
+        this.onVersionsLoadedListener = listener;
+    }
+}
@@ -17,8 +17,26 @@
 package com.weberbox.changelibs.library.parser;
 
 import android.content.Context;
+import android.util.Log;
 
+import com.weberbox.changelibs.library.ChangeLogHttpCache;
+import com.weberbox.changelibs.library.ChangeLogTransport;
+import com.weberbox.changelibs.library.Constants;
+import com.weberbox.changelibs.library.HttpChangeLogTransport;
+import com.weberbox.changelibs.library.Util;
 import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogException;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+import com.weberbox.changelibs.library.internal.ChangeLogSnapshot;
+import com.weberbox.changelibs.library.internal.ChangeLogVersionIndex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Abstract BaseParser for future implementations.
@@ -27,16 +45,105 @@ import com.weberbox.changelibs.library.internal.ChangeLog;
  */
 public abstract class BaseParser {
 
+    private static final String TAG = "BaseParser";
+
+    private static final String LOG_TYPE_NOTE = "note";
+    private static final String LOG_TYPE_FIX = "fix";
+    private static final String LOG_TYPE_NEW = "new";
+    private static final String LOG_TYPE_IMP = "imp";
+
     /**
      * Context
      */
     protected Context context;
 
+    /**
+     * Resource id of the changelog file, in res/raw folder
+     */
+    protected int changeLogFileResourceId = Constants.logFileResourceId;
+
+    /**
+     * Url of the changelog file. It overrides the resource id
+     */
+    protected String changeLogFileResourceUrl = null;
+
+    /**
+     * Disk cache of the file downloaded from the url. Null to download it each time.
+     * The default cache is created by {@link #getHttpCache()}
+     */
+    protected ChangeLogHttpCache httpCache;
+
+    /**
+     * True once the cache is set or the default cache is created
+     */
+    private boolean httpCacheSet;
+
+    /**
+     * Transport used by the parsers without their own transport
+     */
+    private static volatile ChangeLogTransport defaultTransport = new HttpChangeLogTransport();
+
+    /**
+     * Transport of the url
+     */
+    protected ChangeLogTransport transport = defaultTransport;
+
+    /**
+     * Read only the cached copy of the url, without the network
+     */
+    protected boolean readFromCache = false;
+
     /**
      * Use a bulleted List
      */
     protected boolean bulletedList;
 
+    /**
+     * Default number of rows collected before a batch is published
+     */
+    public static final int DEFAULT_ROWS_BATCH_SIZE = 64;
+
+    /**
+     * Listener notified with each batch of parsed rows. It is optional
+     */
+    protected OnRowsParsedListener onRowsParsedListener;
+
+    /**
+     * Number of rows collected before a batch is published
+     */
+    protected int rowsBatchSize = DEFAULT_ROWS_BATCH_SIZE;
+
+    /**
+     * Rows parsed but not published yet
+     */
+    private List<ChangeLogRow> pendingRows;
+
+    /**
+     * True when at least one batch has been published
+     */
+    private boolean rowsPublished;
+
+    /**
+     * The parse stops at the first version which is not newer than this versionCode
+     */
+    protected int stopAtVersionCode = ChangeLogVersionIndex.NO_VERSION_CODE;
+
+    /**
+     * versionCode of the previous version, to find where the parse stops
+     */
+    private int previousVersionCode = ChangeLogVersionIndex.NO_VERSION_CODE;
+
+    /**
+     * True when the parse stopped before the end of the file
+     */
+    private boolean parseStopped;
+
+    /**
+     * Strings read in the current parse, so identical values share one instance.
+     * It exists only during a full parse of the parsers which call {@link #dedup(String)}.
+     */
+    private HashMap<String, String> stringPool;
+
     //--------------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------------
@@ -50,6 +157,30 @@ public abstract class BaseParser {
         this.context = context;
     }
 
+    /**
+     * Create a new instance for a context and for a custom changelogfile.
+     * <p>
+     * You have to use file in res/raw folder.
+     *
+     * @param context                 current Context
+     * @param changeLogFileResourceId reference for a custom file
+     */
+    public BaseParser(Context context, int changeLogFileResourceId) {
+        this.context = context;
+        this.changeLogFileResourceId = changeLogFileResourceId;
+    }
+
+    /**
+     * Create a new instance for a context and with a custom url .
+     *
+     * @param context                  current Context
+     * @param changeLogFileResourceUrl url with the changelog file
+     */
+    public BaseParser(Context context, String changeLogFileResourceUrl) {
+        this.context = context;
+        this.changeLogFileResourceUrl = changeLogFileResourceUrl;
+    }
+
     //--------------------------------------------------------------------------------
 
     /**
@@ -60,4 +191,447 @@ public abstract class BaseParser {
      */
     public abstract ChangeLog readChangeLogFile() throws Exception;
 
+    /**
+     * Read and parse the changeLog file and return an immutable {@link ChangeLogSnapshot}, which
+     * can be shared between threads.
+     *
+     * @return The content of changelog file
+     * @throws Exception exception
+     */
+    public ChangeLogSnapshot readChangeLogSnapshot() throws Exception {
+        return ChangeLogSnapshot.of(readChangeLogFile());
+    }
+
+    //--------------------------------------------------------------------------------
+    // Probes
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Read only the header of the first version, without parsing the changes. It is the newest
+     * version when the file lists the newest version first.
+     *
+     * @return the header of the first version, or null if the file has no versions
+     * @throws Exception if the file is not found or if there are errors on parsing
+     */
+    public ChangeLogRow readFirstVersion() throws Exception {
+        return readVersionHeaders(header -> true);
+    }
+
+    /**
+     * Check if the file has a version newer than a versionCode, for example to decide at launch
+     * if the changelog should be shown. Only the version headers are read, and the reading
+     * stops as soon as the answer is known: with the newest version first it reads one or two
+     * headers.
+     * <p>
+     * The versions must be sorted by versionCode, newest or oldest first.
+     *
+     * @param versionCode versionCode, excluded
+     * @return true if there is a newer version
+     * @throws Exception if the file is not found or if there are errors on parsing
+     */
+    public boolean hasChangesSince(int versionCode) throws Exception {
+        ChangeLogRow header = readVersionHeaders(new NewerVersionProbe(versionCode));
+        return header != null && header.getVersionCode() > versionCode;
+    }
+
+    /**
+     * Read the version headers in document order, until the probe stops.
+     * <p>
+     * This implementation parses the whole file. Parsers which can skip the changes override it.
+     *
+     * @param probe probe called with each header
+     * @return the header which stopped the probe, or null at the end of the file
+     * @throws Exception if the file is not found or if there are errors on parsing
+     */
+    protected ChangeLogRow readVersionHeaders(VersionProbe probe) throws Exception {
+        for (ChangeLogRow header : readChangeLogFile().query().onlyHeaders()) {
+            if (probe.onVersion(header)) return header;
+        }
+        return null;
+    }
+
+    /**
+     * Probe of the version headers
+     */
+    public interface VersionProbe {
+
+        /**
+         * @param header header of a version, without its changes
+         * @return true to stop reading
+         */
+        boolean onVersion(ChangeLogRow header);
+    }
+
+    /**
+     * Stops at the first version newer than a versionCode, or when the versions start to go
+     * down: in a file sorted from the newest version the following ones are older.
+     */
+    private static class NewerVersionProbe implements VersionProbe {
+
+        private final int versionCode;
+        private boolean first = true;
+        private int previous;
+
+        NewerVersionProbe(int versionCode) {
+            this.versionCode = versionCode;
+        }
+
+        @Override
+        public boolean onVersion(ChangeLogRow header) {
+            int code = header.getVersionCode();
+            if (code > versionCode) return true;
+            if (!first && code < previous) return true;
+            first = false;
+            previous = code;
+            return false;
+        }
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Open res/raw/changelog file, the custom file or the url. The file of the url is read from
+     * the {@link ChangeLogHttpCache} when it has not changed. Gzip files are decompressed while
+     * they are read.
+     *
+     * @return the stream, or null if the url can't be reached
+     * @throws IOException exception
+     */
+    protected InputStream openChangeLogStream() throws IOException {
+        if (changeLogFileResourceUrl != null) {
+            ChangeLogHttpCache cache = getHttpCache();
+            if (cache != null) {
+                return cache.open(changeLogFileResourceUrl,
+                        !readFromCache && Util.isConnected(context));
+            }
+            if (Util.isConnected(context)) {
+                ChangeLogTransport.Response response =
+                        transport.get(changeLogFileResourceUrl, null);
+                if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                    response.close();
+                    throw new IOException("Changelog download failed: HTTP "
+                            + response.getCode());
+                }
+                return Util.decompress(response.getBody());
+            }
+            return null;
+        }
+        return Util.decompress(context.getResources().openRawResource(changeLogFileResourceId));
+    }
+
+    /**
+     * res/raw/changelog is the xml changelog, so the parsers of the other formats need a
+     * custom resource or an url.
+     *
+     * @param fileName name of the file, for the error message
+     * @throws ChangeLogException if neither is set
+     */
+    protected void requireCustomChangeLogFile(String fileName) throws ChangeLogException {
+        if (changeLogFileResourceUrl == null
+                && changeLogFileResourceId == Constants.logFileResourceId) {
+            throw new ChangeLogException(fileName + " has no default resource: set a custom"
+                    + " resource or url (chglib_log_file_resource or"
+                    + " chglib_log_file_resource_url)");
+        }
+    }
+
+    /**
+     * Set the disk cache of the file downloaded from the url. By default the file is cached
+     * in the cache dir of the app.
+     *
+     * @param httpCache the cache, or null to download the file each time
+     */
+    public synchronized void setHttpCache(ChangeLogHttpCache httpCache) {
+        this.httpCache = httpCache;
+        this.httpCacheSet = true;
+        if (httpCache != null) {
+            httpCache.setTransport(transport);
+            if (httpCache.getDeltaMerger() == null) httpCache.setDeltaMerger(getDeltaMerger());
+        }
+    }
+
+    /**
+     * The default cache is created on the first call, and not by the constructor, so
+     * {@link #getDeltaMerger()} is called on a fully constructed parser.
+     *
+     * @return the cache of the url, or null if the file is downloaded each time
+     */
+    public synchronized ChangeLogHttpCache getHttpCache() {
+        if (!httpCacheSet && changeLogFileResourceUrl != null && context != null)
+            setHttpCache(new ChangeLogHttpCache(context));
+        return httpCache;
+    }
+
+    /**
+     * Merger of the delta fetch of the url, see
+     * {@link ChangeLogHttpCache#setDeltaQueryParameter(String)}. It is called when the
+     * cache is set or the default cache is created.
+     *
+     * @return the merger of the format, or null if the format has no delta fetch
+     */
+    protected ChangeLogHttpCache.DeltaMerger getDeltaMerger() {
+        return null;
+    }
+
+    /**
+     * Set the transport of the url, for example to use the http client of the app. It is set
+     * on the {@link ChangeLogHttpCache} too.
+     *
+     * @param transport transport, null for the default transport
+     */
+    public synchronized void setTransport(ChangeLogTransport transport) {
+        this.transport = transport != null ? transport : defaultTransport;
+        if (httpCache != null) httpCache.setTransport(this.transport);
+    }
+
+    public ChangeLogTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Set the transport of the parsers created after this call, including the parsers of the
+     * views. Call it once, for example in Application.onCreate().
+     *
+     * @param transport transport, null for {@link HttpChangeLogTransport}
+     */
+    public static void setDefaultTransport(ChangeLogTransport transport) {
+        defaultTransport = transport != null ? transport : new HttpChangeLogTransport();
+    }
+
+    public static ChangeLogTransport getDefaultTransport() {
+        return defaultTransport;
+    }
+
+    /**
+     * Read only the cached copy of the url, for example to show it while the file is
+     * revalidated with {@link ChangeLogHttpCache#revalidate(String)}.
+     *
+     * @param readFromCache true to skip the network
+     */
+    public void setReadFromCache(boolean readFromCache) {
+        this.readFromCache = readFromCache;
+    }
+
+    public boolean isReadFromCache() {
+        return readFromCache;
+    }
+
+    /**
+     * Read the whole changelog file in memory
+     *
+     * @return the file content
+     * @throws Exception if the changelog file is not found
+     */
+    protected byte[] readChangeLogBytes() throws Exception {
+        InputStream is = openChangeLogStream();
+        if (is == null) {
+            Log.d(TAG, "Changelog file not found");
+            throw new ChangeLogException("Changelog file not found");
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(8192, is.available()));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * @param logType logType attribute
+     * @return the {@link ChangeLogRow} type
+     */
+    protected static int getLogType(String logType) {
+        if (logType == null) return ChangeLogRow.DEFAULT;
+        switch (logType) {
+            case LOG_TYPE_FIX:
+                return ChangeLogRow.FIX;
+            case LOG_TYPE_IMP:
+                return ChangeLogRow.IMPROVEMENT;
+            case LOG_TYPE_NEW:
+                return ChangeLogRow.NEW;
+            case LOG_TYPE_NOTE:
+                return ChangeLogRow.NOTE;
+            default:
+                return ChangeLogRow.DEFAULT;
+        }
+    }
+
+    /**
+     * @param versionCode versionCode attribute
+     * @return the version code, or 0 if it is missing or not valid
+     */
+    protected static int getVersionCode(String versionCode) {
+        if (versionCode == null) return 0;
+        try {
+            return Integer.parseInt(versionCode);
+        } catch (NumberFormatException ne) {
+            Log.w(TAG, "Error while parsing versionCode.It must be a numeric value. " +
+                    "Check your file.");
+            return 0;
+        }
+    }
+
+    //--------------------------------------------------------------------------------
+    // Strings
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Return the instance already read in this parse for an equal string.
+     * <p>
+     * Version names, dates and common texts, like "Updated translations", are repeated many
+     * times in a changelog. The rows keep only one copy of each.
+     * Without a pool, like in the windowed reads, the string is returned as is.
+     *
+     * @param value string read from the file
+     * @return the shared instance
+     */
+    protected String dedup(String value) {
+        if (value == null || stringPool == null) return value;
+        String shared = stringPool.get(value);
+        if (shared != null) return shared;
+        stringPool.put(value, value);
+        return value;
+    }
+
+    /**
+     * Convert the markup of a change text and return the shared instance
+     *
+     * @param text change text, with the [b] [i] tags
+     * @return the shared instance of the converted text
+     */
+    protected String dedupChangeText(String text) {
+        return dedup(ChangeLogRow.convertMarkup(text));
+    }
+
+    /**
+     * Start sharing the strings read by {@link #dedup(String)}. Call it at the beginning of the
+     * parse, and release the pool with {@link #resetStringPool()} in a finally block.
+     */
+    protected void createStringPool() {
+        stringPool = new HashMap<>();
+    }
+
+    /**
+     * Release the strings of the parse. Call it at the end of the parse, also when it fails.
+     */
+    protected void resetStringPool() {
+        stringPool = null;
+    }
+
+    //--------------------------------------------------------------------------------
+    // Stop version
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Stop the parse at the versions already seen, for example the versions up to the last one
+     * the user has seen.
+     * <p>
+     * When the file lists the newest version first, the parse stops at the first version which
+     * is not newer than the versionCode, so only the new versions and at most one older version
+     * are read. Files with the oldest version first are parsed to the end.
+     *
+     * @param versionCode versionCode, or {@link ChangeLogVersionIndex#NO_VERSION_CODE} to parse
+     *                    the whole file
+     */
+    public void setStopAtVersionCode(int versionCode) {
+        this.stopAtVersionCode = versionCode;
+    }
+
+    public int getStopAtVersionCode() {
+        return stopAtVersionCode;
+    }
+
+    /**
+     * Check if the parse must stop before a version. Call it with each version, in document
+     * order, before reading its changes.
+     *
+     * @param versionCode versionCode of the version
+     * @return true if the version and the following ones must not be read
+     */
+    protected boolean isStopVersion(int versionCode) {
+        if (stopAtVersionCode == ChangeLogVersionIndex.NO_VERSION_CODE) return false;
+
+        // Only a version lower than the previous one tells that the versions are going down
+        boolean stop = versionCode <= stopAtVersionCode
+                && previousVersionCode != ChangeLogVersionIndex.NO_VERSION_CODE
+                && versionCode < previousVersionCode;
+        previousVersionCode = versionCode;
+        if (stop) parseStopped = true;
+        return stop;
+    }
+
+    /**
+     * @return true if the last parse stopped before the end of the file
+     */
+    protected boolean isParseStopped() {
+        return parseStopped;
+    }
+
+    //--------------------------------------------------------------------------------
+    // Streaming
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Reset the streaming state. Call it at the beginning of the parse.
+     */
+    protected void resetParsedRows() {
+        pendingRows = null;
+        rowsPublished = false;
+        previousVersionCode = ChangeLogVersionIndex.NO_VERSION_CODE;
+        parseStopped = false;
+    }
+
+    /**
+     * Publish the rows of a completed version (header included).
+     * <p>
+     * The first version is published immediately, so the first screen can be shown as soon
+     * as possible. Following versions are collected and published in batches.
+     *
+     * @param versionRows rows of the version, header first
+     */
+    protected void publishVersionRows(List<ChangeLogRow> versionRows) {
+        if (onRowsParsedListener == null || versionRows == null) return;
+
+        if (pendingRows == null) pendingRows = new ArrayList<>();
+        pendingRows.addAll(versionRows);
+
+        if (!rowsPublished || pendingRows.size() >= rowsBatchSize) {
+            flushParsedRows();
+        }
+    }
+
+    /**
+     * Publish all the pending rows. Call it at the end of the parse.
+     */
+    protected void flushParsedRows() {
+        if (onRowsParsedListener == null || pendingRows == null || pendingRows.isEmpty()) return;
+
+        List<ChangeLogRow> batch = pendingRows;
+        pendingRows = null;
+        rowsPublished = true;
+        onRowsParsedListener.onRowsParsed(batch);
+    }
+
+    /**
+     * Listener for rows published while parsing.
+     * <p>
+     * It is called on the parsing thread.
+     */
+    public interface OnRowsParsedListener {
+        void onRowsParsed(List<ChangeLogRow> rows);
+    }
+
+    public void setOnRowsParsedListener(OnRowsParsedListener onRowsParsedListener) {
+        this.onRowsParsedListener = onRowsParsedListener;
+    }
+
+    public void setRowsBatchSize(int rowsBatchSize) {
+        this.rowsBatchSize = Math.max(1, rowsBatchSize);
+    }
 }
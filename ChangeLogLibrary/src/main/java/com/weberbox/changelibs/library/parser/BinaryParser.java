@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogException;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+import com.weberbox.changelibs.library.internal.ChangeLogRowHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser for the binary changelog asset built by the compileChangeLogBinary Gradle task
+ * (see gradle/changelog-compiler.gradle).
+ * <p>
+ * The asset is memory-mapped and rows are decoded without any xml parsing.
+ * The change text is already converted at build time.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class BinaryParser extends BaseParser {
+
+    private static final String TAG = "BinaryParser";
+
+    /**
+     * Default asset name, written by the compileChangeLogBinary task
+     */
+    public static final String DEFAULT_ASSET_NAME = "changelog.chgbin";
+
+    private static final int MAGIC = 0x43484742;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 20;
+    private static final int VERSION_ENTRY_SIZE = 24;
+    private static final int ROW_ENTRY_SIZE = 8;
+
+    private static final int FLAG_BULLETED_LIST = 0x1;
+    private static final int FLAG_CURRENT_VERSION = 0x1;
+    private static final int FLAG_ROW_BULLETED_LIST = 0x100;
+    private static final int MASK_ROW_LOG_TYPE = 0xFF;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private String assetName = DEFAULT_ASSET_NAME;
+
+    //--------------------------------------------------------------------------------
+    //Constructors
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Create a new instance for a context.
+     *
+     * @param context current Context
+     */
+    public BinaryParser(Context context) {
+        super(context);
+    }
+
+    /**
+     * Create a new instance for a context and for a custom asset.
+     *
+     * @param context   current Context
+     * @param assetName name of the binary asset
+     */
+    public BinaryParser(Context context, String assetName) {
+        super(context);
+        this.assetName = assetName;
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Read and decode the binary changelog asset
+     *
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if the asset is not found or if it is not valid
+     */
+    @Override
+    public ChangeLog readChangeLogFile() throws Exception {
+        try {
+            return readChangeLog(mapAsset());
+        } catch (IOException ioe) {
+            Log.d(TAG, "Error i/o with " + assetName, ioe);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Read only the version table of the asset. The rows are not decoded.
+     */
+    @Override
+    protected ChangeLogRow readVersionHeaders(VersionProbe probe) throws Exception {
+        ByteBuffer buffer;
+        try {
+            buffer = mapAsset();
+        } catch (IOException ioe) {
+            Log.d(TAG, "Error i/o with " + assetName, ioe);
+            throw ioe;
+        }
+        Layout layout = readLayout(buffer);
+        StringTable strings = layout.newStringTable(buffer);
+        for (int i = 0; i < layout.versionCount; i++) {
+            int entry = layout.versionsStart + i * VERSION_ENTRY_SIZE;
+            ChangeLogRowHeader header = new ChangeLogRowHeader();
+            header.setVersionName(strings.get(buffer.getInt(entry)));
+            header.setChangeDate(strings.get(buffer.getInt(entry + 4)));
+            header.setVersionCode(buffer.getInt(entry + 8));
+            header.setCurrentVersion((buffer.getInt(entry + 20) & FLAG_CURRENT_VERSION) != 0);
+            if (probe.onVersion(header)) return header;
+        }
+        return null;
+    }
+
+    /**
+     * Map the asset in memory. Compressed assets can't be mapped, so they are read in a buffer.
+     *
+     * @return buffer with the asset content
+     * @throws IOException exception
+     */
+    protected ByteBuffer mapAsset() throws IOException {
+        AssetFileDescriptor afd;
+        try {
+            afd = context.getAssets().openFd(assetName);
+        } catch (FileNotFoundException fnf) {
+            // Compressed asset
+            return readAsset();
+        }
+
+        FileInputStream fis = null;
+        try {
+            fis = afd.createInputStream();
+            FileChannel channel = fis.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(),
+                    afd.getLength());
+        } finally {
+            if (fis != null) fis.close();
+            afd.close();
+        }
+    }
+
+    private ByteBuffer readAsset() throws IOException {
+        InputStream is = context.getAssets().open(assetName);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Decode the binary content
+     *
+     * @param buffer binary content
+     * @return {@link ChangeLog} obj with all data
+     * @throws ChangeLogException if the content is not valid
+     */
+    protected ChangeLog readChangeLog(ByteBuffer buffer) throws ChangeLogException {
+        Layout layout = readLayout(buffer);
+        StringTable strings = layout.newStringTable(buffer);
+        boolean bulletedList = (buffer.getShort(6) & FLAG_BULLETED_LIST) != 0;
+
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.setBulletedList(bulletedList);
+        super.bulletedList = bulletedList;
+        resetParsedRows();
+
+        for (int i = 0; i < layout.versionCount; i++) {
+            int entry = layout.versionsStart + i * VERSION_ENTRY_SIZE;
+            int versionCode = buffer.getInt(entry + 8);
+            // The versions already seen are not read
+            if (isStopVersion(versionCode)) break;
+            String versionName = strings.get(buffer.getInt(entry));
+            String changeDate = strings.get(buffer.getInt(entry + 4));
+            int firstRow = buffer.getInt(entry + 12);
+            int versionRowCount = buffer.getInt(entry + 16);
+            int flags = buffer.getInt(entry + 20);
+            if (firstRow < 0 || versionRowCount < 0
+                    || firstRow + versionRowCount > layout.rowCount)
+                throw new ChangeLogException("Invalid binary changelog " + assetName);
+
+            ChangeLogRowHeader header = new ChangeLogRowHeader();
+            header.setVersionName(versionName);
+            header.setVersionCode(versionCode);
+            header.setChangeDate(changeDate);
+            header.setCurrentVersion((flags & FLAG_CURRENT_VERSION) != 0);
+            changeLog.addRow(header);
+
+            List<ChangeLogRow> versionRows = null;
+            if (onRowsParsedListener != null) {
+                versionRows = new ArrayList<>();
+                versionRows.add(header);
+            }
+
+            for (int r = firstRow; r < firstRow + versionRowCount; r++) {
+                int rowEntry = layout.rowsStart + r * ROW_ENTRY_SIZE;
+                int typeAndFlags = buffer.getInt(rowEntry + 4);
+
+                ChangeLogRow row = new ChangeLogRow();
+                row.setVersionName(versionName);
+                row.setVersionCode(versionCode);
+                row.setBulletedList((typeAndFlags & FLAG_ROW_BULLETED_LIST) != 0);
+                row.setLogType(typeAndFlags & MASK_ROW_LOG_TYPE);
+                // Markup is converted at build time
+                row.setChangeText(strings.get(buffer.getInt(rowEntry)));
+                changeLog.addRow(row);
+
+                if (versionRows != null) versionRows.add(row);
+            }
+
+            publishVersionRows(versionRows);
+        }
+
+        flushParsedRows();
+        return changeLog;
+    }
+
+    /**
+     * Validate the header of the content and compute the start of each table
+     *
+     * @param buffer binary content
+     * @return the layout of the tables
+     * @throws ChangeLogException if the header or the table sizes are not valid
+     */
+    private Layout readLayout(ByteBuffer buffer) throws ChangeLogException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new ChangeLogException("Invalid binary changelog " + assetName);
+        if (buffer.getShort(4) != FORMAT_VERSION)
+            throw new ChangeLogException("Unsupported binary changelog version in " + assetName);
+
+        Layout layout = new Layout();
+        layout.stringCount = buffer.getInt(8);
+        layout.versionCount = buffer.getInt(12);
+        layout.rowCount = buffer.getInt(16);
+        if (layout.stringCount < 0 || layout.versionCount < 0 || layout.rowCount < 0)
+            throw new ChangeLogException("Invalid binary changelog " + assetName);
+
+        // Long arithmetic, so large counts can't overflow past the check
+        long versionsStart = HEADER_SIZE + (layout.stringCount + 1L) * 4;
+        long rowsStart = versionsStart + (long) layout.versionCount * VERSION_ENTRY_SIZE;
+        long stringDataStart = rowsStart + (long) layout.rowCount * ROW_ENTRY_SIZE;
+        if (stringDataStart > buffer.limit())
+            throw new ChangeLogException("Invalid binary changelog " + assetName);
+
+        layout.versionsStart = (int) versionsStart;
+        layout.rowsStart = (int) rowsStart;
+        layout.stringDataStart = (int) stringDataStart;
+        return layout;
+    }
+
+    /**
+     * Start and size of the tables of a valid content
+     */
+    private static class Layout {
+
+        int stringCount;
+        int versionCount;
+        int rowCount;
+        int versionsStart;
+        int rowsStart;
+        int stringDataStart;
+
+        StringTable newStringTable(ByteBuffer buffer) {
+            return new StringTable(buffer, stringCount, HEADER_SIZE, stringDataStart);
+        }
+    }
+
+    /**
+     * String table decoded on demand. Each string is decoded once.
+     */
+    private static class StringTable {
+
+        private final ByteBuffer buffer;
+        private final ByteBuffer data;
+        private final int offsetsStart;
+        private final int dataStart;
+        private final String[] strings;
+        private byte[] scratch = new byte[256];
+
+        StringTable(ByteBuffer buffer, int count, int offsetsStart, int dataStart) {
+            this.buffer = buffer;
+            this.data = buffer.duplicate();
+            this.offsetsStart = offsetsStart;
+            this.dataStart = dataStart;
+            this.strings = new String[count];
+        }
+
+        String get(int index) throws ChangeLogException {
+            if (index < 0) return null;
+            if (index >= strings.length)
+                throw new ChangeLogException("Invalid string reference in binary changelog");
+
+            String value = strings[index];
+            if (value == null) {
+                int start = buffer.getInt(offsetsStart + index * 4);
+                int end = buffer.getInt(offsetsStart + (index + 1) * 4);
+                int length = end - start;
+                if (start < 0 || length < 0 || dataStart + end > buffer.limit())
+                    throw new ChangeLogException("Invalid string reference in binary changelog");
+
+                if (scratch.length < length) scratch = new byte[length];
+                data.position(dataStart + start);
+                data.get(scratch, 0, length);
+                value = new String(scratch, 0, length, UTF_8);
+                strings[index] = value;
+            }
+            return value;
+        }
+    }
+}
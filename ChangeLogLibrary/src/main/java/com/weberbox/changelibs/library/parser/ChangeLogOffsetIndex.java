@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Byte offset of each changelogversion node in a changelog file, with the number of
+ * changelogtext nodes inside it.
+ * <p>
+ * It is built with a byte scan, without any xml parsing. Comments and CDATA sections are skipped.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class ChangeLogOffsetIndex {
+
+    private static final byte[] COMMENT = "!--".getBytes();
+    private static final byte[] COMMENT_END = "-->".getBytes();
+    private static final byte[] CDATA = "![CDATA[".getBytes();
+    private static final byte[] CDATA_END = "]]>".getBytes();
+    private static final byte[] PI_END = "?>".getBytes();
+    private static final byte[] TAG_CHANGELOG_VERSION = "changelogversion".getBytes();
+    private static final byte[] TAG_CHANGELOG_TEXT = "changelogtext".getBytes();
+
+    private int[] offsets = new int[64];
+    private int[] rowCounts = new int[64];
+    private int versionCount;
+    private int length;
+
+    /**
+     * Use a bulleted List, from the changelog node
+     */
+    private boolean bulletedList = true;
+
+    /**
+     * Encoding used to parse a single version
+     */
+    private String encoding = "UTF-8";
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Scan the stream and build the index. The stream is not closed.
+     *
+     * @param is changelog file
+     * @return the index
+     * @throws IOException exception
+     */
+    public static ChangeLogOffsetIndex build(InputStream is) throws IOException {
+        return build(is, new ChangeLogOffsetIndex());
+    }
+
+    /**
+     * Scan the stream into an index, keeping its attributes. The stream is not closed.
+     *
+     * @param is    changelog file
+     * @param index empty index
+     * @return the index
+     * @throws IOException exception
+     */
+    public static ChangeLogOffsetIndex build(InputStream is, ChangeLogOffsetIndex index)
+            throws IOException {
+        new Scanner(is, index).scan();
+        index.offsets = Arrays.copyOf(index.offsets, index.versionCount);
+        index.rowCounts = Arrays.copyOf(index.rowCounts, index.versionCount);
+        return index;
+    }
+
+    /**
+     * Scan the stream only up to the first version. The stream is not closed.
+     *
+     * @param is changelog file
+     * @return byte offset of the first changelogversion node, or -1 if there is none
+     * @throws IOException exception
+     */
+    public static int findFirstVersion(InputStream is) throws IOException {
+        ChangeLogOffsetIndex index = new ChangeLogOffsetIndex();
+        Scanner scanner = new Scanner(is, index);
+        scanner.firstVersionOnly = true;
+        scanner.scan();
+        return index.versionCount > 0 ? index.offsets[0] : -1;
+    }
+
+    private void addVersion(int offset) {
+        if (versionCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, versionCount * 2);
+            rowCounts = Arrays.copyOf(rowCounts, versionCount * 2);
+        }
+        offsets[versionCount++] = offset;
+    }
+
+    private void addRow() {
+        if (versionCount > 0) rowCounts[versionCount - 1]++;
+    }
+
+    //-----------------------------------------------------------------------
+
+    public int getVersionCount() {
+        return versionCount;
+    }
+
+    /**
+     * @param version version index, in document order
+     * @return byte offset of the changelogversion node
+     */
+    public int getOffset(int version) {
+        return offsets[version];
+    }
+
+    /**
+     * @param version version index, in document order
+     * @return number of changelogtext nodes in the version
+     */
+    public int getRowCount(int version) {
+        return rowCounts[version];
+    }
+
+    /**
+     * @return number of changelogtext nodes of each version
+     */
+    public int[] getRowCounts() {
+        return Arrays.copyOf(rowCounts, versionCount);
+    }
+
+    /**
+     * @param version version index, in document order
+     * @return number of bytes from the version node to the next one (or to the end of the file)
+     */
+    public int getByteLength(int version) {
+        int end = version + 1 < versionCount ? offsets[version + 1] : length;
+        return end - offsets[version];
+    }
+
+    /**
+     * @return length of the scanned file
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isBulletedList() {
+        return bulletedList;
+    }
+
+    public void setBulletedList(boolean bulletedList) {
+        this.bulletedList = bulletedList;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Byte scanner
+     */
+    private static class Scanner {
+
+        private final InputStream is;
+        private final ChangeLogOffsetIndex index;
+
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+
+        /**
+         * File offset of the first byte in the buffer
+         */
+        private int base;
+
+        /**
+         * Stop at the first version
+         */
+        private boolean firstVersionOnly;
+
+        Scanner(InputStream is, ChangeLogOffsetIndex index) {
+            this.is = is;
+            this.index = index;
+        }
+
+        void scan() throws IOException {
+            while (available(1)) {
+                if (buffer[position++] != '<') continue;
+
+                int tagOffset = base + position - 1;
+                if (matches(COMMENT)) {
+                    skipTo(COMMENT_END);
+                } else if (matches(CDATA)) {
+                    skipTo(CDATA_END);
+                } else if (available(1) && buffer[position] == '?') {
+                    skipTo(PI_END);
+                } else if (matchesTag(TAG_CHANGELOG_VERSION)) {
+                    index.addVersion(tagOffset);
+                    if (firstVersionOnly) return;
+                } else if (matchesTag(TAG_CHANGELOG_TEXT)) {
+                    index.addRow();
+                }
+            }
+            index.length = base + position;
+        }
+
+        /**
+         * Make sure that count bytes are in the buffer, reading more if needed
+         *
+         * @return false at the end of the stream
+         */
+        private boolean available(int count) throws IOException {
+            if (limit - position >= count) return true;
+
+            // Move the remaining bytes to the beginning of the buffer
+            int remaining = limit - position;
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+            base += position;
+            position = 0;
+            limit = remaining;
+
+            while (limit < count) {
+                int read = is.read(buffer, limit, buffer.length - limit);
+                if (read == -1) return false;
+                limit += read;
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the next bytes are the pattern; they are consumed only in this case
+         */
+        private boolean matches(byte[] pattern) throws IOException {
+            if (!available(pattern.length)) return false;
+            for (int i = 0; i < pattern.length; i++) {
+                if (buffer[position + i] != pattern[i]) return false;
+            }
+            position += pattern.length;
+            return true;
+        }
+
+        /**
+         * @return true if the next bytes are the tag name, followed by a delimiter
+         */
+        private boolean matchesTag(byte[] name) throws IOException {
+            if (!available(name.length + 1)) return false;
+            for (int i = 0; i < name.length; i++) {
+                if (buffer[position + i] != name[i]) return false;
+            }
+            byte delimiter = buffer[position + name.length];
+            return delimiter == '>' || delimiter == '/' || delimiter == ' ' || delimiter == '\t'
+                    || delimiter == '\n' || delimiter == '\r';
+        }
+
+        private void skipTo(byte[] end) throws IOException {
+            while (available(end.length)) {
+                if (buffer[position] == end[0] && matches(end)) return;
+                position++;
+            }
+            // End of stream
+            position = limit;
+        }
+    }
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogException;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+import com.weberbox.changelibs.library.internal.ChangeLogRowHeader;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Xml parser which scans the UTF-8 bytes of the changelog file directly.
+ * <p>
+ * It only knows the changelog grammar: changelog, changelogversion and changelogtext nodes,
+ * comments and the predefined entities. When it finds anything else (CDATA sections, a DOCTYPE,
+ * another encoding, unknown nodes or malformed xml) the file is parsed again by {@link XmlParser}.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class FastXmlParser extends XmlParser {
+
+    private static final String TAG = "FastXmlParser";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] TAG_CHANGELOG = "changelog".getBytes();
+    private static final byte[] TAG_CHANGELOG_VERSION = "changelogversion".getBytes();
+    private static final byte[] TAG_CHANGELOG_TEXT = "changelogtext".getBytes();
+
+    private static final byte[] ATTRIBUTE_BULLETED_LIST = "bulletedList".getBytes();
+    private static final byte[] ATTRIBUTE_CURRENT_VERSION = "currentVersion".getBytes();
+    private static final byte[] ATTRIBUTE_VERSION_NAME = "versionName".getBytes();
+    private static final byte[] ATTRIBUTE_VERSION_CODE = "versionCode".getBytes();
+    private static final byte[] ATTRIBUTE_LOG_TYPE = "logType".getBytes();
+    private static final byte[] ATTRIBUTE_CHANGE_DATE = "changeDate".getBytes();
+
+    private static final byte[] COMMENT = "<!--".getBytes();
+    private static final byte[] COMMENT_END = "-->".getBytes();
+    private static final byte[] PI = "<?".getBytes();
+    private static final byte[] PI_END = "?>".getBytes();
+    private static final byte[] END_TAG = "</".getBytes();
+
+    //--------------------------------------------------------------------------------
+    //Constructors
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Create a new instance for a context.
+     *
+     * @param context current Context
+     */
+    public FastXmlParser(Context context) {
+        super(context);
+    }
+
+    /**
+     * Create a new instance for a context and for a custom changelogfile.
+     * <p>
+     * You have to use file in res/raw folder.
+     *
+     * @param context                 current Context
+     * @param changeLogFileResourceId reference for a custom xml file
+     */
+    public FastXmlParser(Context context, int changeLogFileResourceId) {
+        super(context, changeLogFileResourceId);
+    }
+
+    /**
+     * Create a new instance for a context and with a custom url .
+     *
+     * @param context                  current Context
+     * @param changeLogFileResourceUrl url with xml files
+     */
+    public FastXmlParser(Context context, String changeLogFileResourceUrl) {
+        super(context, changeLogFileResourceUrl);
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Read and parse res/raw/changelog.xml or custom file
+     *
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if changelog.xml or custom file is not found or if there are errors on parsing
+     */
+    @Override
+    public ChangeLog readChangeLogFile() throws Exception {
+        try {
+            return readChangeLog(readChangeLogBytes());
+        } catch (XmlPullParserException xpe) {
+            Log.d(TAG, "XmlPullParseException while parsing changelog file", xpe);
+            throw xpe;
+        } catch (IOException ioe) {
+            Log.d(TAG, "Error i/o with changelog.xml", ioe);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Parse the changelog content, falling back to {@link XmlParser} for unsupported syntax
+     *
+     * @param content changelog file
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if there are errors on parsing
+     */
+    protected ChangeLog readChangeLog(byte[] content) throws Exception {
+        OnRowsParsedListener listener = onRowsParsedListener;
+        // Rows already streamed must not be published again by the fallback
+        final int[] publishedRows = new int[1];
+        if (listener != null) {
+            onRowsParsedListener = rows -> {
+                publishedRows[0] += rows.size();
+                listener.onRowsParsed(rows);
+            };
+        }
+
+        try {
+            try {
+                return new Scanner(content).readChangeLog();
+            } catch (UnsupportedSyntaxException e) {
+                Log.d(TAG, "Unsupported syntax at byte " + e.position + ", using XmlParser");
+            }
+
+            if (listener != null) {
+                onRowsParsedListener = rows -> {
+                    int skip = Math.min(publishedRows[0], rows.size());
+                    publishedRows[0] -= skip;
+                    if (skip < rows.size())
+                        listener.onRowsParsed(new ArrayList<>(rows.subList(skip, rows.size())));
+                };
+            }
+            return readChangeLog(new ByteArrayInputStream(content), null);
+        } finally {
+            onRowsParsedListener = listener;
+        }
+    }
+
+    //--------------------------------------------------------------------------------
+    // Scanner
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Thrown when the scanner can't handle the content. It is never thrown to the caller.
+     */
+    private static class UnsupportedSyntaxException extends Exception {
+
+        final int position;
+
+        UnsupportedSyntaxException(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // Only used for control flow
+            return this;
+        }
+    }
+
+    /**
+     * Byte scanner for a single parse
+     */
+    private class Scanner {
+
+        private static final int MAX_ATTRIBUTES = 8;
+
+        private final byte[] b;
+        private final int end;
+        private int pos;
+
+        // Attributes of the current tag
+        private final int[] nameStarts = new int[MAX_ATTRIBUTES];
+        private final int[] nameEnds = new int[MAX_ATTRIBUTES];
+        private final String[] values = new String[MAX_ATTRIBUTES];
+        private int attributeCount;
+        private boolean emptyTag;
+
+        private StringBuilder builder;
+
+        Scanner(byte[] content) {
+            this.b = content;
+            this.end = content.length;
+        }
+
+        ChangeLog readChangeLog() throws Exception {
+            // UTF-8 byte order mark
+            if (end >= 3 && b[0] == (byte) 0xEF && b[1] == (byte) 0xBB && b[2] == (byte) 0xBF)
+                pos = 3;
+
+            skipMisc(true);
+            if (!readStartTag(TAG_CHANGELOG)) throw unsupported();
+
+            ChangeLog changeLog = new ChangeLog();
+            String bulletedList = attribute(ATTRIBUTE_BULLETED_LIST);
+            boolean bulleted = bulletedList == null || bulletedList.equals("true");
+            changeLog.setBulletedList(bulleted);
+            FastXmlParser.super.bulletedList = bulleted;
+
+            resetParsedRows();
+            createStringPool();
+            try {
+                if (!emptyTag) {
+                    while (true) {
+                        skipText();
+                        if (startsWith(END_TAG)) {
+                            readEndTag(TAG_CHANGELOG);
+                            break;
+                        } else if (startsWith(COMMENT)) {
+                            skipTo(COMMENT_END);
+                        } else if (readStartTag(TAG_CHANGELOG_VERSION)) {
+                            // The versions already seen are not read
+                            if (isStopVersion(getVersionCode(attribute(ATTRIBUTE_VERSION_CODE))))
+                                break;
+                            readVersion(changeLog);
+                        } else {
+                            throw unsupported();
+                        }
+                    }
+                }
+
+                if (!isParseStopped()) {
+                    skipMisc(false);
+                    if (pos != end) throw unsupported();
+                }
+
+                // Publish the last batch
+                flushParsedRows();
+            } finally {
+                resetStringPool();
+            }
+            return changeLog;
+        }
+
+        /**
+         * Parse changelogversion node, after its start tag
+         */
+        private void readVersion(ChangeLog changeLog) throws Exception {
+            String versionName = dedup(attribute(ATTRIBUTE_VERSION_NAME));
+            if (versionName == null)
+                throw new ChangeLogException("VersionName required in changeLogVersion node");
+            int versionCode = getVersionCode(attribute(ATTRIBUTE_VERSION_CODE));
+
+            ChangeLogRowHeader header = new ChangeLogRowHeader();
+            header.setVersionName(versionName);
+            header.setVersionCode(versionCode);
+            header.setChangeDate(dedup(attribute(ATTRIBUTE_CHANGE_DATE)));
+            String currentVersion = attribute(ATTRIBUTE_CURRENT_VERSION);
+            header.setCurrentVersion(currentVersion != null && currentVersion.equals("true"));
+            changeLog.addRow(header);
+
+            List<ChangeLogRow> versionRows = null;
+            if (onRowsParsedListener != null) {
+                versionRows = new ArrayList<>();
+                versionRows.add(header);
+            }
+
+            if (!emptyTag) {
+                while (true) {
+                    skipText();
+                    if (startsWith(END_TAG)) {
+                        readEndTag(TAG_CHANGELOG_VERSION);
+                        break;
+                    } else if (startsWith(COMMENT)) {
+                        skipTo(COMMENT_END);
+                    } else if (readStartTag(TAG_CHANGELOG_TEXT)) {
+                        ChangeLogRow row = readRow(versionName, versionCode);
+                        changeLog.addRow(row);
+                        if (versionRows != null) versionRows.add(row);
+                    } else {
+                        throw unsupported();
+                    }
+                }
+            }
+
+            publishVersionRows(versionRows);
+        }
+
+        /**
+         * Parse changelogtext node, after its start tag
+         */
+        private ChangeLogRow readRow(String versionName, int versionCode) throws Exception {
+            ChangeLogRow row = new ChangeLogRow();
+            row.setVersionName(versionName);
+            row.setVersionCode(versionCode);
+
+            String bulletedList = attribute(ATTRIBUTE_BULLETED_LIST);
+            if (bulletedList != null) {
+                row.setBulletedList(bulletedList.equals("true"));
+            } else {
+                row.setBulletedList(FastXmlParser.super.bulletedList);
+            }
+            row.setLogType(getLogType(attribute(ATTRIBUTE_LOG_TYPE)));
+
+            if (emptyTag) return row;
+
+            String text = readText();
+            // Only plain text is supported
+            if (!startsWith(END_TAG)) throw unsupported();
+            readEndTag(TAG_CHANGELOG_TEXT);
+
+            if (text != null) row.setChangeText(dedupChangeText(text));
+            return row;
+        }
+
+        //----------------------------------------------------------------------------
+
+        /**
+         * Read a start tag with its attributes, if it has this name
+         *
+         * @return false if the next tag has another name
+         */
+        private boolean readStartTag(byte[] name) throws UnsupportedSyntaxException {
+            if (pos >= end || b[pos] != '<') throw unsupported();
+            int nameEnd = pos + 1 + name.length;
+            if (!regionMatches(pos + 1, nameEnd, name) || nameEnd >= end
+                    || !isDelimiter(b[nameEnd])) return false;
+            pos = nameEnd;
+
+            attributeCount = 0;
+            emptyTag = false;
+            while (true) {
+                skipWhitespace();
+                if (pos >= end) throw unsupported();
+                byte c = b[pos];
+                if (c == '>') {
+                    pos++;
+                    return true;
+                }
+                if (c == '/') {
+                    if (pos + 1 >= end || b[pos + 1] != '>') throw unsupported();
+                    pos += 2;
+                    emptyTag = true;
+                    return true;
+                }
+                readAttribute();
+            }
+        }
+
+        private void readAttribute() throws UnsupportedSyntaxException {
+            if (attributeCount == MAX_ATTRIBUTES) throw unsupported();
+
+            int nameStart = pos;
+            while (pos < end && b[pos] != '=' && !isWhitespace(b[pos])) pos++;
+            int nameEnd = pos;
+            skipWhitespace();
+            if (nameEnd == nameStart || pos >= end || b[pos] != '=') throw unsupported();
+            pos++;
+            skipWhitespace();
+            if (pos >= end || (b[pos] != '"' && b[pos] != '\'')) throw unsupported();
+
+            byte quote = b[pos++];
+            int valueStart = pos;
+            boolean plain = true;
+            while (pos < end && b[pos] != quote) {
+                byte c = b[pos];
+                // Attribute value normalization is left to XmlParser
+                if (c == '<' || c == '\t' || c == '\n' || c == '\r') throw unsupported();
+                if (c == '&') plain = false;
+                pos++;
+            }
+            if (pos >= end) throw unsupported();
+
+            nameStarts[attributeCount] = nameStart;
+            nameEnds[attributeCount] = nameEnd;
+            values[attributeCount] = plain
+                    ? new String(b, valueStart, pos - valueStart, UTF_8)
+                    : decode(valueStart, pos);
+            attributeCount++;
+            pos++;
+        }
+
+        /**
+         * @return the attribute value of the current tag, or null
+         */
+        private String attribute(byte[] name) {
+            for (int i = 0; i < attributeCount; i++) {
+                if (nameEnds[i] - nameStarts[i] == name.length
+                        && regionMatches(nameStarts[i], nameEnds[i], name)) return values[i];
+            }
+            return null;
+        }
+
+        private void readEndTag(byte[] name) throws UnsupportedSyntaxException {
+            int nameEnd = pos + 2 + name.length;
+            if (!regionMatches(pos + 2, nameEnd, name)) throw unsupported();
+            pos = nameEnd;
+            skipWhitespace();
+            if (pos >= end || b[pos] != '>') throw unsupported();
+            pos++;
+        }
+
+        /**
+         * Read the text before the next tag
+         *
+         * @return the text, or null if it is empty
+         */
+        private String readText() throws UnsupportedSyntaxException {
+            int start = pos;
+            boolean plain = true;
+            while (pos < end && b[pos] != '<') {
+                byte c = b[pos];
+                if (c == '&' || c == '\r') plain = false;
+                pos++;
+            }
+            if (pos >= end) throw unsupported();
+            if (pos == start) return null;
+            return plain ? new String(b, start, pos - start, UTF_8) : decode(start, pos);
+        }
+
+        /**
+         * Decode entity references and line breaks between two positions
+         */
+        private String decode(int start, int stop) throws UnsupportedSyntaxException {
+            if (builder == null) builder = new StringBuilder();
+            builder.setLength(0);
+
+            int run = start;
+            int i = start;
+            while (i < stop) {
+                byte c = b[i];
+                if (c != '&' && c != '\r') {
+                    i++;
+                    continue;
+                }
+                if (i > run) builder.append(new String(b, run, i - run, UTF_8));
+
+                if (c == '\r') {
+                    // Line breaks are normalized to \n
+                    builder.append('\n');
+                    i++;
+                    if (i < stop && b[i] == '\n') i++;
+                } else {
+                    int semicolon = i + 1;
+                    while (semicolon < stop && semicolon - i <= 10 && b[semicolon] != ';')
+                        semicolon++;
+                    if (semicolon >= stop || b[semicolon] != ';') throw unsupported();
+                    appendEntity(i + 1, semicolon);
+                    i = semicolon + 1;
+                }
+                run = i;
+            }
+            if (stop > run) builder.append(new String(b, run, stop - run, UTF_8));
+            return builder.toString();
+        }
+
+        private void appendEntity(int start, int stop) throws UnsupportedSyntaxException {
+            int length = stop - start;
+            if (length > 1 && b[start] == '#') {
+                int codePoint = 0;
+                int radix = 10;
+                int i = start + 1;
+                if (b[i] == 'x') {
+                    radix = 16;
+                    i++;
+                }
+                if (i == stop) throw unsupported();
+                for (; i < stop; i++) {
+                    int digit = Character.digit(b[i], radix);
+                    if (digit < 0 || codePoint > 0x10FFFF) throw unsupported();
+                    codePoint = codePoint * radix + digit;
+                }
+                if (!Character.isValidCodePoint(codePoint) || codePoint == 0)
+                    throw unsupported();
+                builder.appendCodePoint(codePoint);
+            } else if (isEntity(start, stop, "lt")) {
+                builder.append('<');
+            } else if (isEntity(start, stop, "gt")) {
+                builder.append('>');
+            } else if (isEntity(start, stop, "amp")) {
+                builder.append('&');
+            } else if (isEntity(start, stop, "quot")) {
+                builder.append('"');
+            } else if (isEntity(start, stop, "apos")) {
+                builder.append('\'');
+            } else {
+                throw unsupported();
+            }
+        }
+
+        private boolean isEntity(int start, int stop, String name) {
+            if (stop - start != name.length()) return false;
+            for (int i = 0; i < name.length(); i++) {
+                if (b[start + i] != name.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        //----------------------------------------------------------------------------
+
+        /**
+         * Skip whitespace, comments and processing instructions outside the changelog node
+         *
+         * @param prolog true before the changelog node, where the xml declaration is checked
+         */
+        private void skipMisc(boolean prolog) throws UnsupportedSyntaxException {
+            while (true) {
+                skipWhitespace();
+                if (startsWith(COMMENT)) {
+                    skipTo(COMMENT_END);
+                } else if (startsWith(PI)) {
+                    int start = pos;
+                    skipTo(PI_END);
+                    if (prolog) checkDeclaration(start, pos);
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Only UTF-8 files are scanned
+         */
+        private void checkDeclaration(int start, int stop) throws UnsupportedSyntaxException {
+            String declaration = new String(b, start, stop - start, UTF_8);
+            if (!declaration.startsWith("<?xml")) return;
+
+            int index = declaration.indexOf("encoding");
+            if (index < 0) return;
+            int quote = index + 8;
+            while (quote < declaration.length() && declaration.charAt(quote) != '"'
+                    && declaration.charAt(quote) != '\'') quote++;
+            int close = quote + 1 < declaration.length()
+                    ? declaration.indexOf(declaration.charAt(quote), quote + 1) : -1;
+            if (close < 0) throw unsupported();
+
+            String encoding = declaration.substring(quote + 1, close);
+            if (!encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("US-ASCII"))
+                throw unsupported();
+        }
+
+        /**
+         * Skip the text between nodes. XmlParser ignores it too.
+         */
+        private void skipText() throws UnsupportedSyntaxException {
+            while (pos < end && b[pos] != '<') {
+                if (b[pos] == '&') throw unsupported();
+                pos++;
+            }
+            if (pos >= end) throw unsupported();
+        }
+
+        private void skipTo(byte[] pattern) throws UnsupportedSyntaxException {
+            int last = end - pattern.length;
+            while (pos <= last) {
+                if (b[pos] == pattern[0] && regionMatches(pos, pos + pattern.length, pattern)) {
+                    pos += pattern.length;
+                    return;
+                }
+                pos++;
+            }
+            throw unsupported();
+        }
+
+        private void skipWhitespace() {
+            while (pos < end && isWhitespace(b[pos])) pos++;
+        }
+
+        private boolean startsWith(byte[] pattern) {
+            return regionMatches(pos, pos + pattern.length, pattern);
+        }
+
+        private boolean regionMatches(int start, int stop, byte[] pattern) {
+            if (stop > end) return false;
+            for (int i = start; i < stop; i++) {
+                if (b[i] != pattern[i - start]) return false;
+            }
+            return true;
+        }
+
+        private UnsupportedSyntaxException unsupported() {
+            return new UnsupportedSyntaxException(pos);
+        }
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isDelimiter(byte c) {
+        return c == '>' || c == '/' || isWhitespace(c);
+    }
+}
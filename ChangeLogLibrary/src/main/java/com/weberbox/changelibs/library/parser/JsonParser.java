@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogException;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+import com.weberbox.changelibs.library.internal.ChangeLogRowHeader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser for a changelog in json format.
+ * <p>
+ * The file is read with a streaming {@link JsonReader}, and each version is published as soon as
+ * it is parsed:
+ * <pre>
+ * {
+ *   "bulletedList": true,
+ *   "versions": [
+ *     {
+ *       "versionName": "1.1", "versionCode": 11, "changeDate": "Oct 10, 2021",
+ *       "currentVersion": true,
+ *       "changes": [
+ *         { "logType": "new", "text": "[b]New![/b] Json support" },
+ *         "A change with the default type"
+ *       ]
+ *     }
+ *   ]
+ * }
+ * </pre>
+ * The root can also be the array of versions. Since the file is not kept in memory, bulletedList
+ * must come before the versions, and the version attributes before the changes.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class JsonParser extends BaseParser {
+
+    private static final String TAG = "JsonParser";
+
+    private static final String KEY_VERSIONS = "versions";
+    private static final String KEY_CHANGES = "changes";
+    private static final String KEY_TEXT = "text";
+
+    private static final String ATTRIBUTE_BULLETED_LIST = "bulletedList";
+    private static final String ATTRIBUTE_CURRENT_VERSION = "currentVersion";
+    private static final String ATTRIBUTE_VERSION_NAME = "versionName";
+    private static final String ATTRIBUTE_VERSION_CODE = "versionCode";
+    private static final String ATTRIBUTE_LOG_TYPE = "logType";
+    private static final String ATTRIBUTE_CHANGE_DATE = "changeDate";
+
+    //--------------------------------------------------------------------------------
+    //Constructors
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Create a new instance for a context and for a custom changelogfile.
+     * <p>
+     * You have to use file in res/raw folder. There is no default file, as res/raw/changelog
+     * is the xml changelog.
+     *
+     * @param context                 current Context
+     * @param changeLogFileResourceId reference for a custom json file
+     */
+    public JsonParser(Context context, int changeLogFileResourceId) {
+        super(context, changeLogFileResourceId);
+    }
+
+    /**
+     * Create a new instance for a context and with a custom url .
+     *
+     * @param context                  current Context
+     * @param changeLogFileResourceUrl url with json file
+     */
+    public JsonParser(Context context, String changeLogFileResourceUrl) {
+        super(context, changeLogFileResourceUrl);
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Read and parse the custom json file
+     *
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if the file is not found or if there are errors on parsing
+     */
+    @Override
+    public ChangeLog readChangeLogFile() throws Exception {
+        requireCustomChangeLogFile("Changelog.json");
+
+        ChangeLog chg;
+
+        try {
+            InputStream is = openChangeLogStream();
+
+            if (is != null) {
+                try {
+                    chg = readChangeLog(is);
+                } finally {
+                    is.close();
+                }
+            } else {
+                Log.d(TAG, "Changelog.json not found");
+                throw new ChangeLogException("Changelog.json not found");
+            }
+        } catch (IOException ioe) {
+            Log.d(TAG, "Error i/o with changelog.json", ioe);
+            throw ioe;
+        } catch (IllegalStateException | NumberFormatException e) {
+            // Thrown by JsonReader for unexpected tokens
+            Log.d(TAG, "Error while parsing changelog.json", e);
+            throw new ChangeLogException("Invalid changelog.json: " + e.getMessage());
+        }
+
+        return chg;
+    }
+
+    /**
+     * Parse a json stream. The stream is not closed.
+     *
+     * @param is json stream, in UTF-8
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if there are errors on parsing
+     */
+    protected ChangeLog readChangeLog(InputStream is) throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(is, "UTF-8"));
+
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.setBulletedList(true);
+        super.bulletedList = true;
+
+        resetParsedRows();
+        createStringPool();
+        try {
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readVersions(reader, changeLog);
+            } else {
+                reader.beginObject();
+                while (!isParseStopped() && reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals(ATTRIBUTE_BULLETED_LIST)) {
+                        boolean bulleted = readBoolean(reader);
+                        changeLog.setBulletedList(bulleted);
+                        super.bulletedList = bulleted;
+                    } else if (name.equals(KEY_VERSIONS)) {
+                        readVersions(reader, changeLog);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                // The rest of the file is not read
+                if (!isParseStopped()) reader.endObject();
+            }
+
+            // Publish the last batch
+            flushParsedRows();
+        } finally {
+            resetStringPool();
+        }
+        return changeLog;
+    }
+
+    //--------------------------------------------------------------------------------
+    // Probes
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Read the version attributes with the streaming reader. The changes are skipped, and the
+     * stream is closed as soon as the probe stops.
+     */
+    @Override
+    protected ChangeLogRow readVersionHeaders(VersionProbe probe) throws Exception {
+        requireCustomChangeLogFile("Changelog.json");
+        InputStream is = openChangeLogStream();
+        if (is == null) {
+            Log.d(TAG, "Changelog.json not found");
+            throw new ChangeLogException("Changelog.json not found");
+        }
+
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(is, "UTF-8"));
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                return readVersionHeaders(reader, probe);
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(KEY_VERSIONS)) {
+                    return readVersionHeaders(reader, probe);
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (IllegalStateException | NumberFormatException e) {
+            Log.d(TAG, "Error while reading the versions of changelog.json", e);
+            throw new ChangeLogException("Invalid changelog.json: " + e.getMessage());
+        } finally {
+            is.close();
+        }
+    }
+
+    private ChangeLogRow readVersionHeaders(JsonReader reader, VersionProbe probe)
+            throws Exception {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ChangeLogRowHeader header = new ChangeLogRowHeader();
+            boolean probed = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case ATTRIBUTE_VERSION_NAME:
+                        header.setVersionName(readString(reader));
+                        break;
+                    case ATTRIBUTE_VERSION_CODE:
+                        header.setVersionCode(reader.peek() == JsonToken.NUMBER
+                                ? reader.nextInt() : getVersionCode(readString(reader)));
+                        break;
+                    case ATTRIBUTE_CHANGE_DATE:
+                        header.setChangeDate(readString(reader));
+                        break;
+                    case ATTRIBUTE_CURRENT_VERSION:
+                        header.setCurrentVersion(readBoolean(reader));
+                        break;
+                    case KEY_CHANGES:
+                        // The attributes come before the changes
+                        if (!probed) {
+                            if (probeHeader(probe, header)) return header;
+                            probed = true;
+                        }
+                        reader.skipValue();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!probed && probeHeader(probe, header)) return header;
+        }
+        reader.endArray();
+        return null;
+    }
+
+    private static boolean probeHeader(VersionProbe probe, ChangeLogRowHeader header)
+            throws ChangeLogException {
+        if (header.getVersionName() == null)
+            throw new ChangeLogException("VersionName required in version object");
+        return probe.onVersion(header);
+    }
+
+    //--------------------------------------------------------------------------------
+
+    private void readVersions(JsonReader reader, ChangeLog changeLog) throws Exception {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readVersion(reader, changeLog);
+            if (isParseStopped()) return;
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Parse a version object
+     */
+    private void readVersion(JsonReader reader, ChangeLog changeLog) throws Exception {
+        ChangeLogRowHeader header = new ChangeLogRowHeader();
+        int versionCode = 0;
+        List<ChangeLogRow> versionRows = null;
+        boolean added = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case ATTRIBUTE_VERSION_NAME:
+                    header.setVersionName(dedup(readString(reader)));
+                    break;
+                case ATTRIBUTE_VERSION_CODE:
+                    if (reader.peek() == JsonToken.NUMBER) versionCode = reader.nextInt();
+                    else versionCode = getVersionCode(readString(reader));
+                    header.setVersionCode(versionCode);
+                    break;
+                case ATTRIBUTE_CHANGE_DATE:
+                    header.setChangeDate(dedup(readString(reader)));
+                    break;
+                case ATTRIBUTE_CURRENT_VERSION:
+                    header.setCurrentVersion(readBoolean(reader));
+                    break;
+                case KEY_CHANGES:
+                    if (!added) {
+                        // The versions already seen are not read
+                        if (isStopVersion(versionCode)) return;
+                        versionRows = addHeader(changeLog, header);
+                        added = true;
+                    }
+                    readChanges(reader, changeLog, header, versionCode, versionRows);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!added) {
+            if (isStopVersion(versionCode)) return;
+            versionRows = addHeader(changeLog, header);
+        }
+        publishVersionRows(versionRows);
+    }
+
+    private List<ChangeLogRow> addHeader(ChangeLog changeLog, ChangeLogRowHeader header)
+            throws ChangeLogException {
+        if (header.getVersionName() == null)
+            throw new ChangeLogException("VersionName required in version object");
+        changeLog.addRow(header);
+
+        // Rows published as soon as the version is complete
+        if (onRowsParsedListener == null) return null;
+        List<ChangeLogRow> versionRows = new ArrayList<>();
+        versionRows.add(header);
+        return versionRows;
+    }
+
+    /**
+     * Parse the changes array. Each change is an object or a string.
+     */
+    private void readChanges(JsonReader reader, ChangeLog changeLog, ChangeLogRowHeader header,
+                             int versionCode, List<ChangeLogRow> versionRows)
+            throws Exception {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ChangeLogRow row = new ChangeLogRow();
+            row.setVersionName(header.getVersionName());
+            row.setVersionCode(versionCode);
+            row.setBulletedList(super.bulletedList);
+            row.setLogType(ChangeLogRow.DEFAULT);
+
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    switch (name) {
+                        case KEY_TEXT:
+                            row.setChangeText(dedupChangeText(readString(reader)));
+                            break;
+                        case ATTRIBUTE_LOG_TYPE:
+                            row.setLogType(getLogType(readString(reader)));
+                            break;
+                        case ATTRIBUTE_BULLETED_LIST:
+                            row.setBulletedList(readBoolean(reader));
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                row.setChangeText(dedupChangeText(readString(reader)));
+            }
+
+            if (row.getChangeText() == null)
+                throw new ChangeLogException("Text required in change object");
+            changeLog.addRow(row);
+            if (versionRows != null) versionRows.add(row);
+        }
+        reader.endArray();
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static boolean readBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN) return reader.nextBoolean();
+        return "true".equals(readString(reader));
+    }
+}
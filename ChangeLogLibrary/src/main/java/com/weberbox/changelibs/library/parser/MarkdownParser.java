@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogException;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+import com.weberbox.changelibs.library.internal.ChangeLogRowHeader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parser for a changelog in Markdown, with the Keep a Changelog format
+ * (https://keepachangelog.com).
+ * <p>
+ * The file is read line by line:
+ * <ul>
+ * <li>{@code ## [1.1.0] - 2021-10-10} headings are the versions</li>
+ * <li>{@code ### Added}, {@code ### Fixed}, {@code ### Changed} ... headings set the type of the
+ * following items</li>
+ * <li>list items are the changes. Bold, italic, code and links are converted to html tags,
+ * like the [b] [i] markup of the xml file.</li>
+ * </ul>
+ * Other lines, like the title and the link references, are ignored.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class MarkdownParser extends BaseParser {
+
+    private static final String TAG = "MarkdownParser";
+
+    private static final String HEADING_VERSION = "## ";
+    private static final String HEADING_SECTION = "### ";
+
+    private static final String SECTION_ADDED = "added";
+    private static final String SECTION_CHANGED = "changed";
+    private static final String SECTION_FIXED = "fixed";
+    private static final String SECTION_SECURITY = "security";
+    private static final String SECTION_DEPRECATED = "deprecated";
+    private static final String SECTION_REMOVED = "removed";
+
+    //--------------------------------------------------------------------------------
+    //Constructors
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Create a new instance for a context and for a custom changelogfile.
+     * <p>
+     * You have to use file in res/raw folder. There is no default file, as res/raw/changelog
+     * is the xml changelog.
+     *
+     * @param context                 current Context
+     * @param changeLogFileResourceId reference for a custom markdown file
+     */
+    public MarkdownParser(Context context, int changeLogFileResourceId) {
+        super(context, changeLogFileResourceId);
+    }
+
+    /**
+     * Create a new instance for a context and with a custom url .
+     *
+     * @param context                  current Context
+     * @param changeLogFileResourceUrl url with markdown file
+     */
+    public MarkdownParser(Context context, String changeLogFileResourceUrl) {
+        super(context, changeLogFileResourceUrl);
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Read and parse the custom markdown file
+     *
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if the file is not found or if there are errors on parsing
+     */
+    @Override
+    public ChangeLog readChangeLogFile() throws Exception {
+        requireCustomChangeLogFile("Changelog.md");
+
+        ChangeLog chg;
+
+        try {
+            InputStream is = openChangeLogStream();
+
+            if (is != null) {
+                try {
+                    chg = readChangeLog(new InputStreamReader(is, "UTF-8"));
+                } finally {
+                    is.close();
+                }
+            } else {
+                Log.d(TAG, "Changelog.md not found");
+                throw new ChangeLogException("Changelog.md not found");
+            }
+        } catch (IOException ioe) {
+            Log.d(TAG, "Error i/o with changelog.md", ioe);
+            throw ioe;
+        }
+
+        return chg;
+    }
+
+    /**
+     * Parse a markdown file. The reader is not closed.
+     *
+     * @param reader markdown reader
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if there are errors on parsing
+     */
+    protected ChangeLog readChangeLog(Reader reader) throws Exception {
+        BufferedReader lines = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
+
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.setBulletedList(true);
+        super.bulletedList = true;
+
+        resetParsedRows();
+        createStringPool();
+        try {
+            ChangeLogRowHeader header = null;
+            List<ChangeLogRow> versionRows = null;
+            ChangeLogRow item = null;
+            int type = ChangeLogRow.DEFAULT;
+            boolean fence = false;
+
+            String line;
+            while ((line = lines.readLine()) != null) {
+                String trimmed = line.trim();
+
+                // Code blocks are skipped
+                if (trimmed.startsWith("```")) {
+                    fence = !fence;
+                    item = null;
+                    continue;
+                }
+                if (fence) continue;
+
+                if (line.startsWith(HEADING_VERSION)) {
+                    publishVersionRows(versionRows);
+                    header = readVersionHeading(line.substring(HEADING_VERSION.length()));
+                    header.setChangeDate(dedup(header.getChangeDate()));
+                    changeLog.addRow(header);
+                    versionRows = null;
+                    if (onRowsParsedListener != null) {
+                        versionRows = new ArrayList<>();
+                        versionRows.add(header);
+                    }
+                    type = ChangeLogRow.DEFAULT;
+                    item = null;
+                } else if (line.startsWith("#")) {
+                    if (line.startsWith(HEADING_SECTION))
+                        type = getSectionType(line.substring(HEADING_SECTION.length()));
+                    item = null;
+                } else if (header == null || trimmed.isEmpty() || isLinkReference(trimmed)) {
+                    item = null;
+                } else if (isListItem(trimmed)) {
+                    item = createRow(header, type, trimmed.substring(2).trim(), true);
+                    changeLog.addRow(item);
+                    if (versionRows != null) versionRows.add(item);
+                } else if (item != null) {
+                    // Lazy continuation of the previous item
+                    item.setChangeText(item.getChangeText() + " " + convertInline(trimmed));
+                } else {
+                    item = createRow(header, type, trimmed, false);
+                    changeLog.addRow(item);
+                    if (versionRows != null) versionRows.add(item);
+                }
+            }
+
+            publishVersionRows(versionRows);
+            // Publish the last batch
+            flushParsedRows();
+        } finally {
+            resetStringPool();
+        }
+        return changeLog;
+    }
+
+    /**
+     * Read only the version headings. The stream is closed as soon as the probe stops.
+     */
+    @Override
+    protected ChangeLogRow readVersionHeaders(VersionProbe probe) throws Exception {
+        requireCustomChangeLogFile("Changelog.md");
+        InputStream is = openChangeLogStream();
+        if (is == null) {
+            Log.d(TAG, "Changelog.md not found");
+            throw new ChangeLogException("Changelog.md not found");
+        }
+
+        try {
+            BufferedReader lines = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+            boolean fence = false;
+            String line;
+            while ((line = lines.readLine()) != null) {
+                // Code blocks are skipped
+                if (line.trim().startsWith("```")) {
+                    fence = !fence;
+                } else if (!fence && line.startsWith(HEADING_VERSION)) {
+                    ChangeLogRowHeader header =
+                            readVersionHeading(line.substring(HEADING_VERSION.length()));
+                    if (probe.onVersion(header)) return header;
+                }
+            }
+            return null;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Parse a version heading, like [1.1.0] - 2021-10-10
+     */
+    private static ChangeLogRowHeader readVersionHeading(String heading) {
+        heading = heading.trim();
+
+        String versionName;
+        String rest;
+        int close = heading.startsWith("[") ? heading.indexOf(']') : -1;
+        if (close > 0) {
+            versionName = heading.substring(1, close);
+            rest = heading.substring(close + 1);
+        } else {
+            int space = 0;
+            while (space < heading.length() && !Character.isWhitespace(heading.charAt(space)))
+                space++;
+            versionName = heading.substring(0, space);
+            rest = heading.substring(space);
+        }
+
+        // Date, after a dash or in parentheses
+        rest = rest.trim();
+        if (rest.startsWith("-") || rest.startsWith("\u2013") || rest.startsWith("\u2014"))
+            rest = rest.substring(1).trim();
+        if (rest.startsWith("(") && rest.endsWith(")"))
+            rest = rest.substring(1, rest.length() - 1).trim();
+
+        ChangeLogRowHeader header = new ChangeLogRowHeader();
+        header.setVersionName(versionName.trim());
+        header.setChangeDate(rest.isEmpty() ? null : rest);
+        header.setCurrentVersion(false);
+        return header;
+    }
+
+    private ChangeLogRow createRow(ChangeLogRowHeader header, int type, String text,
+                                   boolean bulleted) {
+        ChangeLogRow row = new ChangeLogRow();
+        row.setVersionName(header.getVersionName());
+        row.setVersionCode(header.getVersionCode());
+        row.setBulletedList(bulleted);
+        row.setLogType(type);
+        row.setChangeText(dedup(convertInline(text)));
+        return row;
+    }
+
+    /**
+     * @param section section heading, like Added
+     * @return the {@link ChangeLogRow} type
+     */
+    protected static int getSectionType(String section) {
+        switch (section.trim().toLowerCase(Locale.US)) {
+            case SECTION_ADDED:
+                return ChangeLogRow.NEW;
+            case SECTION_CHANGED:
+                return ChangeLogRow.IMPROVEMENT;
+            case SECTION_FIXED:
+            case SECTION_SECURITY:
+                return ChangeLogRow.FIX;
+            case SECTION_DEPRECATED:
+            case SECTION_REMOVED:
+                return ChangeLogRow.NOTE;
+            default:
+                return ChangeLogRow.DEFAULT;
+        }
+    }
+
+    private static boolean isListItem(String line) {
+        if (line.length() < 2 || line.charAt(1) != ' ') return false;
+        char c = line.charAt(0);
+        return c == '-' || c == '*' || c == '+';
+    }
+
+    /**
+     * Link reference definition, like [1.1.0]: https://...
+     */
+    private static boolean isLinkReference(String line) {
+        int close = line.indexOf("]:");
+        return line.startsWith("[") && close > 0 && line.indexOf(']') == close;
+    }
+
+    //--------------------------------------------------------------------------------
+    // Inline markup
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Convert bold, italic, code and links to the html tags of the change text.
+     * Brackets, &lt; and &amp; in the text are written as entities, so they are not read as tags.
+     *
+     * @param text markdown text
+     * @return text with html tags
+     */
+    protected static String convertInline(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        boolean bold = false;
+        boolean italic = false;
+        int length = text.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            char next = i + 1 < length ? text.charAt(i + 1) : 0;
+
+            if (c == '\\' && next != 0 && isPunctuation(next)) {
+                appendEscaped(sb, next);
+                i++;
+            } else if (c == '`') {
+                int close = text.indexOf('`', i + 1);
+                if (close < 0) {
+                    sb.append(c);
+                } else {
+                    for (int k = i + 1; k < close; k++) appendEscaped(sb, text.charAt(k));
+                    i = close;
+                }
+            } else if ((c == '*' || c == '_') && next == c) {
+                if (bold ? isClosing(text, i) : isOpening(text, i + 1)) {
+                    sb.append(bold ? "</b>" : "<b>");
+                    bold = !bold;
+                    i++;
+                } else {
+                    sb.append(c).append(c);
+                    i++;
+                }
+            } else if (c == '*' || c == '_') {
+                // Underscores inside words are literal
+                boolean inWord = c == '_' && i > 0 && Character.isLetterOrDigit(text.charAt(i - 1))
+                        && Character.isLetterOrDigit(next);
+                if (!inWord && (italic ? isClosing(text, i) : isOpening(text, i))) {
+                    sb.append(italic ? "</i>" : "<i>");
+                    italic = !italic;
+                } else {
+                    sb.append(c);
+                }
+            } else if (c == '[') {
+                int closeText = text.indexOf("](", i + 1);
+                int closeUrl = closeText > 0 ? text.indexOf(')', closeText + 2) : -1;
+                if (closeUrl < 0) {
+                    appendEscaped(sb, c);
+                } else {
+                    String url = text.substring(closeText + 2, closeUrl).trim();
+                    sb.append("<a href=\"");
+                    for (int k = 0; k < url.length(); k++) appendUrl(sb, url.charAt(k));
+                    sb.append("\">");
+                    sb.append(convertInline(text.substring(i + 1, closeText)));
+                    sb.append("</a>");
+                    i = closeUrl;
+                }
+            } else {
+                appendEscaped(sb, c);
+            }
+        }
+
+        if (italic) sb.append("</i>");
+        if (bold) sb.append("</b>");
+        return sb.toString();
+    }
+
+    /**
+     * An opening marker must be followed by text
+     */
+    private static boolean isOpening(String text, int markerEnd) {
+        int after = markerEnd + 1;
+        return after < text.length() && !Character.isWhitespace(text.charAt(after));
+    }
+
+    /**
+     * A closing marker must follow text
+     */
+    private static boolean isClosing(String text, int marker) {
+        return marker > 0 && !Character.isWhitespace(text.charAt(marker - 1));
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c < 128 && !Character.isLetterOrDigit(c) && !Character.isWhitespace(c);
+    }
+
+    private static void appendEscaped(StringBuilder sb, char c) {
+        switch (c) {
+            case '[':
+                sb.append("&#91;");
+                break;
+            case ']':
+                sb.append("&#93;");
+                break;
+            case '<':
+                sb.append("&lt;");
+                break;
+            case '>':
+                sb.append("&gt;");
+                break;
+            case '&':
+                sb.append("&amp;");
+                break;
+            default:
+                sb.append(c);
+        }
+    }
+
+    /**
+     * The quote would end the href attribute
+     */
+    private static void appendUrl(StringBuilder sb, char c) {
+        switch (c) {
+            case '"':
+                sb.append("%22");
+                break;
+            case '&':
+                sb.append("&amp;");
+                break;
+            default:
+                sb.append(c);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.weberbox.changelibs.library.async.AsyncWorker;
+import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogException;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+import com.weberbox.changelibs.library.internal.ChangeLogVersionIndex;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Xml parser which splits a large changelog file in shards and parses them in parallel.
+ * <p>
+ * The shard boundaries are changelogversion nodes, found with a {@link ChangeLogOffsetIndex}.
+ * Each shard is parsed as a separate document on the {@link AsyncWorker} threads, and the
+ * results are joined in document order. Small files are parsed sequentially.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class ParallelXmlParser extends XmlParser {
+
+    private static final String TAG = "ParallelXmlParser";
+
+    /**
+     * Default min file size for a parallel parse, in bytes
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 256 * 1024;
+
+    /**
+     * Default max number of shards
+     */
+    public static final int DEFAULT_MAX_SHARDS = 4;
+
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private int maxShards = DEFAULT_MAX_SHARDS;
+
+    //--------------------------------------------------------------------------------
+    //Constructors
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Create a new instance for a context.
+     *
+     * @param context current Context
+     */
+    public ParallelXmlParser(Context context) {
+        super(context);
+    }
+
+    /**
+     * Create a new instance for a context and for a custom changelogfile.
+     * <p>
+     * You have to use file in res/raw folder.
+     *
+     * @param context                 current Context
+     * @param changeLogFileResourceId reference for a custom xml file
+     */
+    public ParallelXmlParser(Context context, int changeLogFileResourceId) {
+        super(context, changeLogFileResourceId);
+    }
+
+    /**
+     * Create a new instance for a context and with a custom url .
+     *
+     * @param context                  current Context
+     * @param changeLogFileResourceUrl url with xml files
+     */
+    public ParallelXmlParser(Context context, String changeLogFileResourceUrl) {
+        super(context, changeLogFileResourceUrl);
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Read and parse res/raw/changelog.xml or custom file, in parallel when it is large enough
+     *
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if changelog.xml or custom file is not found or if there are errors on parsing
+     */
+    @Override
+    public ChangeLog readChangeLogFile() throws Exception {
+
+        try {
+            byte[] content = readChangeLogBytes();
+            return readChangeLog(content);
+        } catch (XmlPullParserException xpe) {
+            Log.d(TAG, "XmlPullParseException while parsing changelog file", xpe);
+            throw xpe;
+        } catch (IOException ioe) {
+            Log.d(TAG, "Error i/o with changelog.xml", ioe);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Parse the changelog content
+     *
+     * @param content changelog file
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if there are errors on parsing
+     */
+    protected ChangeLog readChangeLog(byte[] content) throws Exception {
+        int shards = Math.min(maxShards, Runtime.getRuntime().availableProcessors());
+        // A parse which stops at a version reads only the beginning of the file
+        if (content.length < parallelThreshold || shards < 2
+                || stopAtVersionCode != ChangeLogVersionIndex.NO_VERSION_CODE)
+            return readChangeLog(new ByteArrayInputStream(content), null);
+
+        ChangeLogOffsetIndex index = ChangeLogOffsetIndex.build(new ByteArrayInputStream(content));
+        try {
+            readChangeLogIndexAttributes(new ByteArrayInputStream(content), index);
+        } catch (ChangeLogException e) {
+            // Encoding not supported by the byte scan
+            Log.d(TAG, "Parsing changelog file sequentially", e);
+            return readChangeLog(new ByteArrayInputStream(content), null);
+        }
+
+        int[] starts = shardStarts(index, Math.min(shards, index.getVersionCount()));
+        if (starts.length < 2)
+            return readChangeLog(new ByteArrayInputStream(content), null);
+
+        return readShards(content, index, starts);
+    }
+
+    /**
+     * Parse the shards and join them.
+     * <p>
+     * The first shard is parsed on the calling thread. The calling thread then runs every
+     * shard which has not been started by a worker yet, so it never waits for a busy pool.
+     */
+    private ChangeLog readShards(byte[] content, ChangeLogOffsetIndex index, int[] starts)
+            throws Exception {
+        ExecutorService executor = getShardExecutor();
+
+        List<FutureTask<ChangeLog>> tasks = new ArrayList<>(starts.length - 1);
+        for (int shard = 1; shard < starts.length; shard++) {
+            final int from = index.getOffset(starts[shard]);
+            final int to = shard + 1 < starts.length
+                    ? index.getOffset(starts[shard + 1]) : content.length;
+            FutureTask<ChangeLog> task = new FutureTask<>(
+                    () -> readShard(createShardParser(), content, from, to, index));
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        // First shard, streamed to the listener
+        XmlParser first = createShardParser();
+        if (onRowsParsedListener != null) {
+            first.setOnRowsParsedListener(onRowsParsedListener);
+            first.setRowsBatchSize(rowsBatchSize);
+        }
+        ChangeLog changeLog = readShard(first, content, 0, index.getOffset(starts[1]), index);
+
+        for (FutureTask<ChangeLog> task : tasks) {
+            // No-op if a worker already took it
+            task.run();
+            List<ChangeLogRow> rows;
+            try {
+                rows = task.get().getRowList();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                throw e;
+            }
+            changeLog.getRowList().addAll(rows);
+            if (onRowsParsedListener != null && !rows.isEmpty())
+                onRowsParsedListener.onRowsParsed(new ArrayList<>(rows));
+        }
+
+        super.bulletedList = changeLog.isBulletedList();
+        return changeLog;
+    }
+
+    /**
+     * Parse the bytes between two offsets as a changelog document.
+     * <p>
+     * The first shard starts with the original changelog node; the other ones get a synthetic
+     * changelog node with the same attributes. Every shard but the last one gets a closing node.
+     */
+    private static ChangeLog readShard(XmlParser parser, byte[] content, int from, int to,
+                                       ChangeLogOffsetIndex index) throws Exception {
+        List<InputStream> parts = new ArrayList<>(3);
+        if (from > 0) {
+            String open = "<changelog bulletedList=\"" + index.isBulletedList() + "\">";
+            parts.add(new ByteArrayInputStream(open.getBytes(index.getEncoding())));
+        }
+        parts.add(new ByteArrayInputStream(content, from, to - from));
+        if (to < content.length) {
+            parts.add(new ByteArrayInputStream("</changelog>".getBytes(index.getEncoding())));
+        }
+
+        InputStream is = new SequenceInputStream(Collections.enumeration(parts));
+        return parser.readChangeLog(is, from > 0 ? index.getEncoding() : null);
+    }
+
+    /**
+     * Split the versions in shards of about the same size in bytes
+     *
+     * @return first version of each shard
+     */
+    private static int[] shardStarts(ChangeLogOffsetIndex index, int shards) {
+        int versionCount = index.getVersionCount();
+        if (shards < 2 || versionCount < 2) return new int[0];
+
+        int[] starts = new int[shards];
+        int count = 1;
+        int version = 1;
+        long length = index.getLength();
+        for (int shard = 1; shard < shards; shard++) {
+            long target = length * shard / shards;
+            while (version < versionCount && index.getOffset(version) < target) version++;
+            if (version >= versionCount) break;
+            if (version > starts[count - 1]) starts[count++] = version;
+            version++;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Parser used for a single shard. Override it to parse the shards with a custom parser.
+     *
+     * @return a new parser
+     */
+    protected XmlParser createShardParser() {
+        return new XmlParser(context);
+    }
+
+    /**
+     * Executor for the shards. Shards which are not started in time run on the calling thread.
+     *
+     * @return the {@link AsyncWorker} executor
+     */
+    protected ExecutorService getShardExecutor() {
+        return AsyncWorker.getInstance().getExecutorService();
+    }
+
+    //--------------------------------------------------------------------------------
+    // Getter and Setter
+    //--------------------------------------------------------------------------------
+
+    /**
+     * @param parallelThreshold min file size for a parallel parse, in bytes
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @param maxShards max number of shards; the number of processors is the upper bound
+     */
+    public void setMaxShards(int maxShards) {
+        this.maxShards = Math.max(1, maxShards);
+    }
+}
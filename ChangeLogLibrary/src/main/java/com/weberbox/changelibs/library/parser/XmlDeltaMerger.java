@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import android.util.Xml;
+
+import com.weberbox.changelibs.library.ChangeLogHttpCache;
+import com.weberbox.changelibs.library.internal.ChangeLogVersionIndex;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Merges a partial changelog.xml, with only the versions newer than the cached copy, into the
+ * cached copy.
+ * <p>
+ * The new changelogversion nodes are copied, as they are, before the first version of the
+ * cached copy, so the versions must be sorted newest first. The partial file is a complete
+ * document:
+ *
+ * <pre>
+ * &lt;changelog&gt;
+ *     &lt;changelogversion versionName="1.3.0" versionCode="130"&gt;...&lt;/changelogversion&gt;
+ * &lt;/changelog&gt;
+ * </pre>
+ * <p>
+ * A server which ignores the delta request answers with the whole file, which has the older
+ * versions too: it replaces the cached copy.
+ *
+ * @author James Weber
+ */
+@SuppressWarnings("unused")
+public class XmlDeltaMerger implements ChangeLogHttpCache.DeltaMerger {
+
+    private static final String TAG_CHANGELOG = "changelog";
+    private static final String TAG_CHANGELOG_VERSION = "changelogversion";
+    private static final String ATTRIBUTE_VERSION_CODE = "versionCode";
+
+    // Searched in the bytes of the delta, in utf-8 or another ascii based encoding
+    private static final byte[] TAG_CHANGELOG_END =
+            "</changelog".getBytes(Charset.forName("US-ASCII"));
+
+    //--------------------------------------------------------------------------------
+
+    @Override
+    public int readNewestVersionCode(InputStream cached) throws IOException {
+        try {
+            XmlPullParser parser = newParser(cached);
+            while (parser.next() != XmlPullParser.END_DOCUMENT) {
+                if (parser.getEventType() == XmlPullParser.START_TAG
+                        && TAG_CHANGELOG_VERSION.equals(parser.getName()))
+                    return readVersionCode(parser);
+            }
+            return ChangeLogVersionIndex.NO_VERSION_CODE;
+        } catch (XmlPullParserException e) {
+            throw new IOException("Can't read the cached changelog", e);
+        }
+    }
+
+    @Override
+    public boolean merge(InputStream cached, InputStream delta, int sinceVersionCode,
+                         OutputStream out) throws IOException {
+        byte[] deltaBytes = readFully(delta);
+        int[] versionCodes = new int[16];
+        int versionCount = 0;
+        String deltaEncoding;
+        try {
+            XmlPullParser parser = newParser(new ByteArrayInputStream(deltaBytes));
+            deltaEncoding = parser.getInputEncoding();
+            while (parser.next() != XmlPullParser.END_DOCUMENT) {
+                if (parser.getEventType() != XmlPullParser.START_TAG
+                        || !TAG_CHANGELOG_VERSION.equals(parser.getName())) continue;
+                int versionCode = readVersionCode(parser);
+                if (versionCode == ChangeLogVersionIndex.NO_VERSION_CODE)
+                    throw new IOException("Changelog delta with a version without versionCode");
+                // The whole file has the older versions too
+                if (versionCode < sinceVersionCode) return false;
+                if (versionCount == versionCodes.length)
+                    versionCodes = Arrays.copyOf(versionCodes, versionCount * 2);
+                versionCodes[versionCount++] = versionCode;
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("Can't parse the changelog delta", e);
+        }
+
+        // The next delta fetch starts from the first version
+        for (int version = 1; version < versionCount; version++) {
+            if (versionCodes[version] >= versionCodes[version - 1])
+                throw new IOException("The versions of the changelog delta are not sorted");
+        }
+        // The newer versions, then the version of the cached copy, if the server sends it
+        int newer = 0;
+        while (newer < versionCount && versionCodes[newer] > sinceVersionCode) newer++;
+
+        BufferedInputStream in = new BufferedInputStream(cached);
+        in.mark(Integer.MAX_VALUE);
+        String encoding = readEncoding(in);
+        in.reset();
+        int first = ChangeLogOffsetIndex.findFirstVersion(in);
+        in.reset();
+        // Drop the mark, so the rest of the file is not kept in the buffer
+        in.mark(0);
+        if (first < 0) throw new IOException("The cached changelog has no versions");
+        if (!encoding.equalsIgnoreCase(deltaEncoding != null ? deltaEncoding : "UTF-8"))
+            throw new IOException("The changelog delta is encoded in " + deltaEncoding);
+
+        copy(in, out, first);
+        if (newer > 0) {
+            ChangeLogOffsetIndex index =
+                    ChangeLogOffsetIndex.build(new ByteArrayInputStream(deltaBytes));
+            if (index.getVersionCount() != versionCount)
+                throw new IOException("Can't find the versions of the changelog delta");
+            int start = index.getOffset(0);
+            int end = newer < versionCount
+                    ? index.getOffset(newer) : lastIndexOf(deltaBytes, TAG_CHANGELOG_END);
+            if (end < start) throw new IOException("Changelog delta without the changelog end");
+            out.write(deltaBytes, start, end - start);
+        }
+        copy(in, out, Long.MAX_VALUE);
+        return true;
+    }
+
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Create the pull parser of the cached copy and of the delta. The unit tests override it
+     * with KXmlParser.
+     *
+     * @return a new pull parser
+     */
+    protected XmlPullParser newPullParser() {
+        return Xml.newPullParser();
+    }
+
+    private XmlPullParser newParser(InputStream is) throws XmlPullParserException, IOException {
+        XmlPullParser parser = newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(is, null);
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, null, TAG_CHANGELOG);
+        return parser;
+    }
+
+    /**
+     * @return the versionCode, or NO_VERSION_CODE if it is missing or not valid
+     */
+    private static int readVersionCode(XmlPullParser parser) {
+        String versionCode = parser.getAttributeValue(null, ATTRIBUTE_VERSION_CODE);
+        if (versionCode == null) return ChangeLogVersionIndex.NO_VERSION_CODE;
+        try {
+            return Integer.parseInt(versionCode.trim());
+        } catch (NumberFormatException e) {
+            return ChangeLogVersionIndex.NO_VERSION_CODE;
+        }
+    }
+
+    private String readEncoding(InputStream is) throws IOException {
+        try {
+            String encoding = newParser(is).getInputEncoding();
+            return encoding != null ? encoding : "UTF-8";
+        } catch (XmlPullParserException e) {
+            throw new IOException("Can't read the cached changelog", e);
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(is, out, Long.MAX_VALUE);
+        return out.toByteArray();
+    }
+
+    private static void copy(InputStream in, OutputStream out, long count) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (count > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (read == -1) return;
+            out.write(buffer, 0, read);
+            count -= read;
+        }
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte[] pattern) {
+        for (int i = bytes.length - pattern.length; i >= 0; i--) {
+            int j = 0;
+            while (j < pattern.length && bytes[i + j] == pattern[j]) j++;
+            if (j == pattern.length) return i;
+        }
+        return -1;
+    }
+}
@@ -20,8 +20,7 @@ import android.content.Context;
 import android.util.Log;
 import android.util.Xml;
 
-import com.weberbox.changelibs.library.Constants;
-import com.weberbox.changelibs.library.Util;
+import com.weberbox.changelibs.library.ChangeLogHttpCache;
 import com.weberbox.changelibs.library.internal.ChangeLog;
 import com.weberbox.changelibs.library.internal.ChangeLogAdapter;
 import com.weberbox.changelibs.library.internal.ChangeLogException;
@@ -31,27 +30,22 @@ import com.weberbox.changelibs.library.internal.ChangeLogRowHeader;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 @SuppressWarnings("unused")
 public class XmlParser extends BaseParser {
 
     private static final String TAG = "XmlParser";
 
-    private int changeLogFileResourceId = Constants.logFileResourceId;
-    private String changeLogFileResourceUrl = null;
-
     protected ChangeLogAdapter changeLogAdapter;
 
     private static final String TAG_CHANGELOG = "changelog";
     private static final String TAG_CHANGELOG_VERSION = "changelogversion";
     private static final String TAG_CHANGELOG_TEXT = "changelogtext";
-    private static final String TAG_CHANGELOG_NOTE = "note";
-    private static final String TAG_CHANGELOG_FIX = "fix";
-    private static final String TAG_CHANGELOG_NEW = "new";
-    private static final String TAG_CHANGELOG_IMP = "imp";
 
     private static final String ATTRIBUTE_BULLETED_LIST = "bulletedList";
     private static final String ATTRIBUTE_CURRENT_VERSION = "currentVersion";
@@ -82,8 +76,7 @@ public class XmlParser extends BaseParser {
      * @param changeLogFileResourceId reference for a custom xml file
      */
     public XmlParser(Context context, int changeLogFileResourceId) {
-        super(context);
-        this.changeLogFileResourceId = changeLogFileResourceId;
+        super(context, changeLogFileResourceId);
     }
 
     /**
@@ -93,8 +86,7 @@ public class XmlParser extends BaseParser {
      * @param changeLogFileResourceUrl url with xml files
      */
     public XmlParser(Context context, String changeLogFileResourceUrl) {
-        super(context);
-        this.changeLogFileResourceUrl = changeLogFileResourceUrl;
+        super(context, changeLogFileResourceUrl);
     }
 
     //--------------------------------------------------------------------------------
@@ -111,31 +103,15 @@ public class XmlParser extends BaseParser {
         ChangeLog chg;
 
         try {
-            InputStream is = null;
+            InputStream is = openChangeLogStream();
 
-            if (changeLogFileResourceUrl != null) {
-                if (Util.isConnected(super.context)) {
-                    URL url = new URL(changeLogFileResourceUrl);
-                    is = url.openStream();
-                }
-            } else {
-                is = context.getResources().openRawResource(changeLogFileResourceId);
-            }
             if (is != null) {
-
-                // Create a new XML Pull Parser.
-                XmlPullParser parser = Xml.newPullParser();
-                parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
-                parser.setInput(is, null);
-                parser.nextTag();
-
-                // Create changelog obj that will contain all data
-                chg = new ChangeLog();
-                // Parse file
-                readChangeLogNode(parser, chg);
-
-                // Close inputstream
-                is.close();
+                try {
+                    chg = readChangeLog(is, null);
+                } finally {
+                    // Close inputstream
+                    is.close();
+                }
             } else {
                 Log.d(TAG, "Changelog.xml not found");
                 throw new ChangeLogException("Changelog.xml not found");
@@ -151,6 +127,257 @@ public class XmlParser extends BaseParser {
         return chg;
     }
 
+    /**
+     * Parse a changelog stream. The stream is not closed.
+     *
+     * @param is       changelog stream
+     * @param encoding encoding, or null to detect it
+     * @return {@link ChangeLog} obj with all data
+     * @throws Exception if there are errors on parsing
+     */
+    protected ChangeLog readChangeLog(InputStream is, String encoding) throws Exception {
+        // Create a new XML Pull Parser.
+        XmlPullParser parser = newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(is, encoding);
+        parser.nextTag();
+
+        // Create changelog obj that will contain all data
+        ChangeLog chg = new ChangeLog();
+        // Parse file
+        readChangeLogNode(parser, chg);
+        return chg;
+    }
+
+    //--------------------------------------------------------------------------------
+    // Probes
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Read the version nodes attributes with the pull parser. The changeLogText nodes are
+     * skipped, and the stream is closed as soon as the probe stops.
+     */
+    @Override
+    protected ChangeLogRow readVersionHeaders(VersionProbe probe) throws Exception {
+        InputStream is = openChangeLogStream();
+        if (is == null) {
+            Log.d(TAG, "Changelog.xml not found");
+            throw new ChangeLogException("Changelog.xml not found");
+        }
+
+        try {
+            XmlPullParser parser = newPullParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+            parser.setInput(is, null);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, null, TAG_CHANGELOG);
+
+            while (parser.next() != XmlPullParser.END_TAG) {
+                if (parser.getEventType() != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                if (parser.getName().equals(TAG_CHANGELOG_VERSION)) {
+                    ChangeLogRowHeader header = readChangeLogVersionHeader(parser);
+                    if (probe.onVersion(header)) return header;
+                }
+                skipNode(parser);
+            }
+            return null;
+        } catch (XmlPullParserException xpe) {
+            Log.d(TAG, "XmlPullParseException while reading the changelog versions", xpe);
+            throw xpe;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Create the pull parser of the file. The unit tests, which run without the android
+     * classes, use the same KXmlParser through this method.
+     *
+     * @return a new pull parser
+     */
+    protected XmlPullParser newPullParser() {
+        return Xml.newPullParser();
+    }
+
+    /**
+     * Skip a node and its children
+     *
+     * @param parser parser, on the start tag of the node
+     */
+    private static void skipNode(XmlPullParser parser) throws Exception {
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    throw new ChangeLogException("Unexpected end of changelog.xml");
+            }
+        }
+    }
+
+    //--------------------------------------------------------------------------------
+    // Windowed parsing
+    //--------------------------------------------------------------------------------
+
+    /**
+     * Build the offset index of the changelog file, without parsing the versions.
+     *
+     * @return {@link ChangeLogOffsetIndex} with the position of each version
+     * @throws Exception if the file is not found or if it can't be indexed
+     */
+    public ChangeLogOffsetIndex readChangeLogIndex() throws Exception {
+        InputStream is = openChangeLogStream();
+        if (is == null) throw new ChangeLogException("Changelog.xml not found");
+        try {
+            // The file is opened once: the beginning is read again from the buffer
+            BufferedInputStream in = new BufferedInputStream(is);
+            in.mark(Integer.MAX_VALUE);
+            ChangeLogOffsetIndex index = new ChangeLogOffsetIndex();
+            readChangeLogIndexAttributes(in, index);
+            in.reset();
+            // Drop the mark, so the rest of the file is not kept in the buffer
+            in.mark(0);
+            return ChangeLogOffsetIndex.build(in, index);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Read the changelog node attributes and the encoding of the file into the index.
+     * Only the changelog node is parsed. The stream is not closed.
+     *
+     * @param is    changelog stream
+     * @param index offset index of the same stream
+     * @throws Exception if the file can't be indexed
+     */
+    protected void readChangeLogIndexAttributes(InputStream is, ChangeLogOffsetIndex index)
+            throws Exception {
+        XmlPullParser parser = newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(is, null);
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, null, TAG_CHANGELOG);
+
+        String bulletedList = parser.getAttributeValue(null, ATTRIBUTE_BULLETED_LIST);
+        index.setBulletedList(bulletedList == null || bulletedList.equals("true"));
+
+        String encoding = parser.getInputEncoding();
+        if (encoding == null) encoding = "UTF-8";
+        // The offsets are found with a byte scan
+        if (encoding.toUpperCase().startsWith("UTF-16"))
+            throw new ChangeLogException("Changelog.xml can't be indexed with " + encoding);
+        index.setEncoding(encoding);
+    }
+
+    /**
+     * Parse only a range of versions, using the offset index.
+     * <p>
+     * Only local state is used, so the windowed loads can read several ranges at the same
+     * time with one parser.
+     *
+     * @param index offset index of the file
+     * @param from  first version, in document order
+     * @param count number of versions
+     * @return the rows of each version, header first
+     * @throws Exception if the file is not found or if there are errors on parsing
+     */
+    public List<List<ChangeLogRow>> readChangeLogVersions(ChangeLogOffsetIndex index,
+                                                                int from, int count)
+            throws Exception {
+        List<List<ChangeLogRow>> versions = new ArrayList<>(count);
+        if (count <= 0) return versions;
+
+        InputStream is = openChangeLogStream();
+        if (is == null) throw new ChangeLogException("Changelog.xml not found");
+
+        try {
+            skipFully(is, index.getOffset(from));
+
+            for (int version = from; version < from + count; version++) {
+                // Each version is parsed as a single document
+                InputStream versionStream = new BoundedInputStream(is,
+                        index.getByteLength(version));
+
+                XmlPullParser parser = newPullParser();
+                parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+                parser.setInput(versionStream, index.getEncoding());
+                parser.nextTag();
+
+                versions.add(readChangeLogVersionRows(parser, index.isBulletedList()));
+
+                // Move to the next version
+                skipFully(versionStream, Long.MAX_VALUE);
+            }
+        } finally {
+            is.close();
+        }
+        return versions;
+    }
+
+    private static void skipFully(InputStream is, long count) throws IOException {
+        byte[] buffer = null;
+        while (count > 0) {
+            long skipped = is.skip(count);
+            if (skipped <= 0) {
+                // Some streams can't skip, read instead
+                if (buffer == null) buffer = new byte[8192];
+                int read = is.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (read == -1) return;
+                skipped = read;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Stream limited to a number of bytes. Closing it doesn't close the wrapped stream.
+     */
+    private static class BoundedInputStream extends InputStream {
+
+        private final InputStream is;
+        private long remaining;
+
+        BoundedInputStream(InputStream is, long length) {
+            this.is = is;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = is.read();
+            if (b != -1) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int read = is.read(b, off, (int) Math.min(len, remaining));
+            if (read != -1) remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = is.skip(Math.min(n, remaining));
+            if (skipped > 0) remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
     /**
      * Parse changelog node
      *
@@ -174,17 +401,29 @@ public class XmlParser extends BaseParser {
             super.bulletedList = false;
         }
 
-        // Parse nested nodes
-        while (parser.next() != XmlPullParser.END_TAG) {
-            if (parser.getEventType() != XmlPullParser.START_TAG) {
-                continue;
-            }
+        resetParsedRows();
+        createStringPool();
+        try {
+            // Parse nested nodes
+            while (parser.next() != XmlPullParser.END_TAG) {
+                if (parser.getEventType() != XmlPullParser.START_TAG) {
+                    continue;
+                }
 
-            String tag = parser.getName();
+                String tag = parser.getName();
 
-            if (tag.equals(TAG_CHANGELOG_VERSION)) {
-                readChangeLogVersionNode(parser, changeLog);
+                if (tag.equals(TAG_CHANGELOG_VERSION)) {
+                    // The versions already seen are not read
+                    if (isStopVersion(getVersionCode(
+                            parser.getAttributeValue(null, ATTRIBUTE_VERSION_CODE)))) break;
+                    readChangeLogVersionNode(parser, changeLog);
+                }
             }
+
+            // Publish the last batch
+            flushParsedRows();
+        } finally {
+            resetStringPool();
         }
     }
 
@@ -200,30 +439,82 @@ public class XmlParser extends BaseParser {
 
         if (parser == null) return;
 
+        ChangeLogRowHeader row = readChangeLogVersionHeader(parser);
+        String versionName = row.getVersionName();
+        int versionCode = row.getVersionCode();
+        changeLog.addRow(row);
+
+        // Rows published as soon as the version is complete
+        List<ChangeLogRow> versionRows = null;
+        if (onRowsParsedListener != null) {
+            versionRows = new ArrayList<>();
+            versionRows.add(row);
+        }
+
+        // Parse nested nodes
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String tag = parser.getName();
+            // Log.d(TAG,"Processing tag="+tag);
+
+            ChangeLogRow changeLogRow = readChangeLogRowNode(parser, versionName, versionCode,
+                    super.bulletedList);
+            changeLog.addRow(changeLogRow);
+            if (versionRows != null) versionRows.add(changeLogRow);
+        }
+
+        publishVersionRows(versionRows);
+    }
+
+    /**
+     * Parse changeLogVersion node, without the streaming and the parse state
+     *
+     * @param parser       parser, on the changeLogVersion start tag
+     * @param bulletedList bulletedList attribute of the changelog node
+     * @return the rows of the version, header first
+     * @throws Exception exception
+     */
+    private List<ChangeLogRow> readChangeLogVersionRows(XmlPullParser parser,
+                                                        boolean bulletedList) throws Exception {
+        ChangeLogRowHeader header = readChangeLogVersionHeader(parser);
+        List<ChangeLogRow> rows = new ArrayList<>();
+        rows.add(header);
+
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            rows.add(readChangeLogRowNode(parser, header.getVersionName(),
+                    header.getVersionCode(), bulletedList));
+        }
+        return rows;
+    }
+
+    /**
+     * Read the attributes of a changeLogVersion node
+     *
+     * @param parser parser, on the changeLogVersion start tag
+     * @return the header of the version
+     * @throws Exception exception
+     */
+    protected ChangeLogRowHeader readChangeLogVersionHeader(XmlPullParser parser)
+            throws Exception {
         parser.require(XmlPullParser.START_TAG, null, TAG_CHANGELOG_VERSION);
 
         // Read attributes
         String versionName = parser.getAttributeValue(null, ATTRIBUTE_VERSION_NAME);
-        String versionCodeStr = parser.getAttributeValue(null, ATTRIBUTE_VERSION_CODE);
-        int versionCode = 0;
-        if (versionCodeStr != null) {
-            try {
-                versionCode = Integer.parseInt(versionCodeStr);
-            } catch (NumberFormatException ne) {
-                Log.w(TAG, "Error while parsing versionCode.It must be a numeric value. " +
-                        "Check your file.");
-            }
-        }
+        int versionCode = getVersionCode(parser.getAttributeValue(null, ATTRIBUTE_VERSION_CODE));
 
         String changeDate = parser.getAttributeValue(null, ATTRIBUTE_CHANGE_DATE);
         if (versionName == null)
             throw new ChangeLogException("VersionName required in changeLogVersion node");
 
         ChangeLogRowHeader row = new ChangeLogRowHeader();
-        row.setVersionName(versionName);
-        //row.setVersionCode(versionCode);
-        row.setChangeDate(changeDate);
-        changeLog.addRow(row);
+        row.setVersionName(dedup(versionName));
+        row.setVersionCode(versionCode);
+        row.setChangeDate(dedup(changeDate));
 
         String currentVersion = parser.getAttributeValue(null, ATTRIBUTE_CURRENT_VERSION);
         if (currentVersion != null) {
@@ -231,29 +522,23 @@ public class XmlParser extends BaseParser {
         } else {
             row.setCurrentVersion(false);
         }
-
-        // Parse nested nodes
-        while (parser.next() != XmlPullParser.END_TAG) {
-            if (parser.getEventType() != XmlPullParser.START_TAG) {
-                continue;
-            }
-            String tag = parser.getName();
-            // Log.d(TAG,"Processing tag="+tag);
-
-            readChangeLogRowNode(parser, changeLog, versionName, versionCode);
-        }
+        return row;
     }
 
     /**
      * Parse changeLogText node
      *
-     * @param parser    parser
-     * @param changeLog changeLog
+     * @param parser              parser
+     * @param versionName         versionName of the version
+     * @param versionCode         versionCode of the version
+     * @param defaultBulletedList bulletedList of the changelog node
+     * @return the new row
      * @throws Exception exception
      */
-    private void readChangeLogRowNode(XmlPullParser parser, ChangeLog changeLog, String versionName,
-                                      int versionCode) throws Exception {
-        if (parser == null) return;
+    private ChangeLogRow readChangeLogRowNode(XmlPullParser parser, String versionName,
+                                              int versionCode, boolean defaultBulletedList)
+            throws Exception {
+        if (parser == null) return null;
 
         String tag = parser.getName();
 
@@ -268,43 +553,26 @@ public class XmlParser extends BaseParser {
         if (bulletedList != null) {
             row.setBulletedList(bulletedList.equals("true"));
         } else {
-            row.setBulletedList(super.bulletedList);
+            row.setBulletedList(defaultBulletedList);
         }
 
-        String logType = parser.getAttributeValue(null, ATTRIBUTE_LOG_TYPE);
-        if (logType != null) {
-            int type;
-            switch (logType) {
-                case TAG_CHANGELOG_FIX:
-                    type = ChangeLogRow.FIX;
-                    break;
-                case TAG_CHANGELOG_IMP:
-                    type = ChangeLogRow.IMPROVEMENT;
-                    break;
-                case TAG_CHANGELOG_NEW:
-                    type = ChangeLogRow.NEW;
-                    break;
-                case TAG_CHANGELOG_NOTE:
-                    type = ChangeLogRow.NOTE;
-                    break;
-                default:
-                    type = ChangeLogRow.DEFAULT;
-            }
-            row.setLogType(type);
-        } else {
-            row.setLogType(ChangeLogRow.DEFAULT);
-        }
+        row.setLogType(getLogType(parser.getAttributeValue(null, ATTRIBUTE_LOG_TYPE)));
 
         // Read text
         if (parser.next() == XmlPullParser.TEXT) {
             String changeLogText = parser.getText();
             if (changeLogText == null)
                 throw new ChangeLogException("ChangeLogText required in changeLogText node");
-            row.parseChangeText(changeLogText);
+            row.setChangeText(dedupChangeText(changeLogText));
             parser.nextTag();
         }
 
-        changeLog.addRow(row);
+        return row;
+    }
+
+    @Override
+    protected ChangeLogHttpCache.DeltaMerger getDeltaMerger() {
+        return new XmlDeltaMerger();
     }
 
     public void setChangeLogAdapter(ChangeLogAdapter changeLogAdapter) {
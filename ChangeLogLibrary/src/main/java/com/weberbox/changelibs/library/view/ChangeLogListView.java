@@ -16,7 +16,9 @@
  **/
 package com.weberbox.changelibs.library.view;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.os.Build;
 import android.util.AttributeSet;
@@ -29,11 +31,22 @@ import android.widget.Toast;
 import com.weberbox.changelibs.R;
 import com.weberbox.changelibs.library.async.AsyncTask;
 import com.weberbox.changelibs.library.internal.ChangeLogAdapter;
+import com.weberbox.changelibs.library.parser.BaseParser;
+import com.weberbox.changelibs.library.parser.FastXmlParser;
+import com.weberbox.changelibs.library.parser.JsonParser;
+import com.weberbox.changelibs.library.parser.MarkdownParser;
+import com.weberbox.changelibs.library.parser.ParallelXmlParser;
 import com.weberbox.changelibs.library.parser.XmlParser;
 
+import com.weberbox.changelibs.library.ChangeLogHttpCache;
 import com.weberbox.changelibs.library.Constants;
 import com.weberbox.changelibs.library.Util;
 import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogMarkup;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+import com.weberbox.changelibs.library.internal.ChangeLogVersionIndex;
+
+import java.util.List;
 
 /**
  * ListView for ChangeLog
@@ -51,12 +64,40 @@ public class ChangeLogListView extends ListView implements AdapterView.OnItemCli
     protected int changeLogFileResourceId = Constants.logFileResourceId;
     protected int colorCurrentVersion = Constants.currentVersionColor;
     protected String changeLogFileResourceUrl = null;
+    protected boolean parallelParsing = false;
+    protected boolean fastParsing = false;
+    protected int logFormat = Constants.logFormatXml;
+    protected int sinceVersionCode = ChangeLogVersionIndex.NO_VERSION_CODE;
+    protected int cacheMaxAge = 0;
+    protected String deltaQueryParameter = null;
+    protected String deltaHeader = null;
 
     //--------------------------------------------------------------------------
     protected static String TAG = "ChangeLogListView";
     // Adapter
     protected ChangeLogAdapter adapter;
 
+    // Memory
+    protected boolean parsing = false;
+    protected boolean reloadWhenShown = false;
+    protected int reloadPosition = INVALID_POSITION;
+
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(TRIM_MEMORY_COMPLETE);
+        }
+    };
+
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
@@ -125,11 +166,55 @@ public class ChangeLogListView extends ListView implements AdapterView.OnItemCli
                     R.styleable.ChangeLogListView_chglib_current_version_color,
                     colorCurrentVersion);
 
+            parallelParsing = a.getBoolean(R.styleable.ChangeLogListView_chglib_parallel_parsing,
+                    parallelParsing);
+            fastParsing = a.getBoolean(R.styleable.ChangeLogListView_chglib_fast_parsing,
+                    fastParsing);
+            logFormat = a.getInt(R.styleable.ChangeLogListView_chglib_log_format, logFormat);
+            sinceVersionCode = a.getInt(R.styleable.ChangeLogListView_chglib_since_version_code,
+                    sinceVersionCode);
+            cacheMaxAge = a.getInt(R.styleable.ChangeLogListView_chglib_cache_max_age,
+                    cacheMaxAge);
+            deltaQueryParameter = a.getString(
+                    R.styleable.ChangeLogListView_chglib_delta_query_parameter);
+            deltaHeader = a.getString(R.styleable.ChangeLogListView_chglib_delta_header);
+
         } finally {
             a.recycle();
         }
     }
 
+    /**
+     * Create the parser for the changelog file
+     *
+     * @return the parser, depending on the custom attrs
+     */
+    protected BaseParser createParser() {
+        if (logFormat == Constants.logFormatJson) {
+            if (changeLogFileResourceUrl != null)
+                return new JsonParser(getContext(), changeLogFileResourceUrl);
+            return new JsonParser(getContext(), changeLogFileResourceId);
+        }
+        if (logFormat == Constants.logFormatMarkdown) {
+            if (changeLogFileResourceUrl != null)
+                return new MarkdownParser(getContext(), changeLogFileResourceUrl);
+            return new MarkdownParser(getContext(), changeLogFileResourceId);
+        }
+        if (parallelParsing) {
+            if (changeLogFileResourceUrl != null)
+                return new ParallelXmlParser(getContext(), changeLogFileResourceUrl);
+            return new ParallelXmlParser(getContext(), changeLogFileResourceId);
+        }
+        if (fastParsing) {
+            if (changeLogFileResourceUrl != null)
+                return new FastXmlParser(getContext(), changeLogFileResourceUrl);
+            return new FastXmlParser(getContext(), changeLogFileResourceId);
+        }
+        if (changeLogFileResourceUrl != null)
+            return new XmlParser(getContext(), changeLogFileResourceUrl);
+        return new XmlParser(getContext(), changeLogFileResourceId);
+    }
+
     /**
      * Init adapter
      */
@@ -137,24 +222,25 @@ public class ChangeLogListView extends ListView implements AdapterView.OnItemCli
 
         try {
             //Read and parse changelog.xml
-            XmlParser parse;
-            if (changeLogFileResourceUrl != null) {
-                parse = new XmlParser(getContext(), changeLogFileResourceUrl);
-            } else {
-                parse = new XmlParser(getContext(), changeLogFileResourceId);
-            }
+            BaseParser parse = createParser();
+            setDeltaFetch(parse);
             //ChangeLog chg=parse.readChangeLogFile();
             ChangeLog chg = new ChangeLog();
 
             //Create adapter and set custom attrs
-            adapter = new ChangeLogAdapter(getContext(), chg.getRows());
+            adapter = new ChangeLogAdapter(getContext(), chg.getRowList());
             adapter.setRowLayoutId(rowLayoutId);
             adapter.setRowHeaderLayoutId(rowHeaderLayoutId);
             adapter.setCurrentVersionColor(colorCurrentVersion);
 
             //Parse in a separate Thread to avoid UI block with large files
-            if (changeLogFileResourceUrl == null || Util.isConnected(getContext())) {
-                new ParseAsyncTask(adapter, parse).execute();
+            if (changeLogFileResourceUrl == null || Util.isConnected(getContext())
+                    || isCached(parse)) {
+                parsing = true;
+                ParseAsyncTask task = new ParseAsyncTask(adapter, parse);
+                // Show the cached copy of the url without waiting for the network
+                task.setRevalidate(readCachedCopy(parse));
+                task.execute();
             } else {
                 Toast.makeText(getContext(), R.string.changelog_internal_error_internet_connection,
                         Toast.LENGTH_LONG).show();
@@ -168,25 +254,93 @@ public class ChangeLogListView extends ListView implements AdapterView.OnItemCli
 
     }
 
+    /**
+     * @param parse parser of the url
+     * @return true if the cache of the parser has a copy of the url. A parser without cache
+     * has no copy.
+     */
+    private boolean isCached(BaseParser parse) {
+        ChangeLogHttpCache cache = parse.getHttpCache();
+        return cache != null && cache.isCached(changeLogFileResourceUrl);
+    }
+
+    /**
+     * Parse the cached copy of the url, if there is one, instead of waiting for the network
+     *
+     * @param parse parser
+     * @return true if the cached copy must be revalidated after the parse
+     */
+    protected boolean readCachedCopy(BaseParser parse) {
+        if (changeLogFileResourceUrl == null || !isCached(parse)) return false;
+        ChangeLogHttpCache cache = parse.getHttpCache();
+        parse.setReadFromCache(true);
+        return !cache.isFresh(changeLogFileResourceUrl, cacheMaxAge * 1000L)
+                && Util.isConnected(getContext());
+    }
+
+    /**
+     * Ask the url only for the versions newer than the cached copy, if the custom attrs set
+     * the query parameter or the header of the delta fetch
+     *
+     * @param parse parser
+     */
+    protected void setDeltaFetch(BaseParser parse) {
+        ChangeLogHttpCache cache = parse.getHttpCache();
+        if (cache == null) return;
+        cache.setDeltaQueryParameter(deltaQueryParameter);
+        cache.setDeltaHeader(deltaHeader);
+    }
+
     /**
      * Async Task to parse xml file in a separate thread
      */
-    protected class ParseAsyncTask extends AsyncTask<Void, Void, ChangeLog> {
+    protected class ParseAsyncTask extends AsyncTask<Void, List<ChangeLogRow>, ChangeLog> {
 
         private final ChangeLogAdapter adapter;
-        private final XmlParser parse;
+        private final BaseParser parse;
+        private boolean streamed = false;
+        private boolean revalidate = false;
 
-        public ParseAsyncTask(ChangeLogAdapter adapter, XmlParser parse) {
+        public ParseAsyncTask(ChangeLogAdapter adapter, BaseParser parse) {
             this.adapter = adapter;
             this.parse = parse;
         }
 
+        /**
+         * @param revalidate true to check for a newer file, when the cached copy is shown
+         */
+        public void setRevalidate(boolean revalidate) {
+            this.revalidate = revalidate;
+        }
+
         @Override
         protected ChangeLog doInBackground(Void params) {
 
             try {
                 if (parse != null) {
-                    return parse.readChangeLogFile();
+                    // Show each version as soon as it is parsed, unless only the newer
+                    // versions are shown
+                    // The rows are rendered before they are published: the main thread can
+                    // bind the streamed rows while the parse goes on
+                    int[] streamedRows = new int[1];
+                    if (sinceVersionCode == ChangeLogVersionIndex.NO_VERSION_CODE) {
+                        parse.setOnRowsParsedListener(rows -> {
+                            ChangeLogMarkup.render(rows);
+                            streamedRows[0] += rows.size();
+                            publishProgress(rows);
+                        });
+                    } else {
+                        // The older versions are not parsed
+                        parse.setStopAtVersionCode(sinceVersionCode);
+                    }
+                    ChangeLog chg = parse.readChangeLogFile();
+                    if (chg != null) {
+                        List<ChangeLogRow> rows = chg.getRowList();
+                        ChangeLogMarkup.render(
+                                rows.subList(Math.min(streamedRows[0], rows.size()), rows.size()));
+                        chg.getVersionIndex();
+                    }
+                    return chg;
                 }
             } catch (Exception e) {
                 Log.e(TAG, getResources().getString(R.string.changelog_internal_error_parsing), e);
@@ -194,13 +348,103 @@ public class ChangeLogListView extends ListView implements AdapterView.OnItemCli
             return null;
         }
 
-        protected void onPostExecute(ChangeLog chg) {
+        @Override
+        protected void onProgress(List<ChangeLogRow> rows) {
+            //Append the rows parsed so far
+            streamed = true;
+            adapter.addAll(rows);
+        }
 
-            //Notify data changed
-            if (chg != null) {
-                adapter.addAll(chg.getRows());
+        protected void onPostExecute(ChangeLog chg) {
+            parsing = false;
+
+            //Notify data changed, if rows were not already streamed
+            if (chg != null && !streamed) {
+                if (sinceVersionCode != ChangeLogVersionIndex.NO_VERSION_CODE) {
+                    adapter.addAll(chg.getRowsSince(sinceVersionCode));
+                } else {
+                    adapter.addAll(chg.getRowList());
+                }
                 adapter.notifyDataSetChanged();
             }
+
+            // Back to the rows shown before the memory was released
+            if (reloadPosition != INVALID_POSITION) {
+                if (reloadPosition < adapter.getCount()) setSelection(reloadPosition);
+                reloadPosition = INVALID_POSITION;
+            }
+
+            if (revalidate) new RevalidateAsyncTask(adapter, parse).execute();
+        }
+
+        @Override
+        protected void onBackgroundError(Exception e) {
+            parsing = false;
+            Log.e(TAG, getResources().getString(R.string.changelog_internal_error_parsing), e);
+        }
+    }
+
+    /**
+     * Async Task to check for a newer file of the url, while the cached copy is shown. The rows
+     * are replaced only if they changed.
+     */
+    protected class RevalidateAsyncTask extends AsyncTask<Void, Void, List<ChangeLogRow>> {
+
+        private final ChangeLogAdapter adapter;
+        private final BaseParser parse;
+
+        /**
+         * @param adapter adapter with the rows of the cached copy
+         * @param parse   parser of the cached copy
+         */
+        public RevalidateAsyncTask(ChangeLogAdapter adapter, BaseParser parse) {
+            this.adapter = adapter;
+            this.parse = parse;
+        }
+
+        @Override
+        protected List<ChangeLogRow> doInBackground(Void params) {
+
+            try {
+                if (!parse.getHttpCache().revalidate(changeLogFileResourceUrl)) return null;
+
+                // The new file is in the cache
+                parse.setOnRowsParsedListener(null);
+                parse.setReadFromCache(true);
+                ChangeLog chg = parse.readChangeLogFile();
+                List<ChangeLogRow> rows = sinceVersionCode != ChangeLogVersionIndex.NO_VERSION_CODE
+                        ? chg.getRowsSince(sinceVersionCode) : chg.getRowList();
+                ChangeLogMarkup.render(rows);
+                return rows;
+            } catch (Exception e) {
+                Log.e(TAG, getResources().getString(R.string.changelog_internal_error_parsing), e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(List<ChangeLogRow> rows) {
+            // The rows can be released or parsed again in the meantime
+            if (rows == null || adapter != ChangeLogListView.this.adapter || parsing
+                    || reloadWhenShown || !hasChanges(rows))
+                return;
+
+            // The list keeps its position
+            adapter.setNotifyOnChange(false);
+            adapter.clear();
+            adapter.addAll(rows);
+            adapter.notifyDataSetChanged();
+        }
+
+        /**
+         * @return true if the rows shown are different
+         */
+        private boolean hasChanges(List<ChangeLogRow> rows) {
+            if (rows.size() != adapter.getCount()) return true;
+            for (int i = 0; i < rows.size(); i++) {
+                if (!rows.get(i).hasSameContent(adapter.getItem(i))) return true;
+            }
+            return false;
         }
 
         @Override
@@ -209,6 +453,54 @@ public class ChangeLogListView extends ListView implements AdapterView.OnItemCli
         }
     }
 
+    //--------------------------------------------------------------------------
+    // Memory
+    //--------------------------------------------------------------------------
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getContext().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Release memory, depending on the level of {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * The rendered texts are released from
+     * {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW}. With
+     * {@link ComponentCallbacks2#TRIM_MEMORY_COMPLETE} the rows of a local file are released
+     * too, and parsed again when the view is shown.
+     *
+     * @param level trim level
+     */
+    public void trimMemory(int level) {
+        if (adapter == null || reloadWhenShown) return;
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE && changeLogFileResourceUrl == null
+                && !parsing && !adapter.isEmpty()) {
+            reloadPosition = getFirstVisiblePosition();
+            adapter.clear();
+            reloadWhenShown = true;
+            return;
+        }
+        adapter.trimMemory(level);
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == VISIBLE && reloadWhenShown) {
+            reloadWhenShown = false;
+            parsing = true;
+            new ParseAsyncTask(adapter, createParser()).execute();
+        }
+    }
+
     /**
      * Sets the list's adapter, enforces the use of only a ChangeLogAdapter
      */
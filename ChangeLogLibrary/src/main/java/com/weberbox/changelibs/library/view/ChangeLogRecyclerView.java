@@ -19,10 +19,13 @@
 package com.weberbox.changelibs.library.view;
 
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.os.Build;
 
+import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -32,12 +35,29 @@ import android.widget.Toast;
 
 import com.weberbox.changelibs.R;
 import com.weberbox.changelibs.library.async.AsyncTask;
+import com.weberbox.changelibs.library.async.AsyncWorker;
 import com.weberbox.changelibs.library.internal.ChangeLogRecyclerViewAdapter;
+import com.weberbox.changelibs.library.internal.WindowedRowList;
+import com.weberbox.changelibs.library.parser.ChangeLogOffsetIndex;
+import com.weberbox.changelibs.library.parser.BaseParser;
+import com.weberbox.changelibs.library.parser.FastXmlParser;
+import com.weberbox.changelibs.library.parser.JsonParser;
+import com.weberbox.changelibs.library.parser.MarkdownParser;
+import com.weberbox.changelibs.library.parser.ParallelXmlParser;
 import com.weberbox.changelibs.library.parser.XmlParser;
 
+import com.weberbox.changelibs.library.ChangeLogHttpCache;
+import com.weberbox.changelibs.library.ChangeLogTracker;
 import com.weberbox.changelibs.library.Constants;
 import com.weberbox.changelibs.library.Util;
 import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogMarkup;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+import com.weberbox.changelibs.library.internal.ChangeLogSnapshot;
+import com.weberbox.changelibs.library.internal.ChangeLogVersionIndex;
+import com.weberbox.changelibs.library.internal.CompactChangeLog;
+
+import java.util.List;
 
 /**
  * RecyclerView for ChangeLog
@@ -55,6 +75,16 @@ public class ChangeLogRecyclerView extends RecyclerView {
     protected int changeLogFileResourceId = Constants.logFileResourceId;
     protected int colorCurrentVersion = Constants.currentVersionColor;
     protected String changeLogFileResourceUrl = null;
+    protected int windowSize = 0;
+    protected boolean parallelParsing = false;
+    protected boolean fastParsing = false;
+    protected int logFormat = Constants.logFormatXml;
+    protected boolean compactRows = false;
+    protected int sinceVersionCode = ChangeLogVersionIndex.NO_VERSION_CODE;
+    protected boolean unseenOnly = false;
+    protected int cacheMaxAge = 0;
+    protected String deltaQueryParameter = null;
+    protected String deltaHeader = null;
 
     //--------------------------------------------------------------------------
     protected static String TAG = "ChangeLogRecyclerView";
@@ -62,6 +92,39 @@ public class ChangeLogRecyclerView extends RecyclerView {
     // Adapter
     protected ChangeLogRecyclerViewAdapter adapter;
 
+    // Windowed parsing
+    protected WindowedRowList windowedRows;
+    protected volatile ChangeLogOffsetIndex offsetIndex;
+    // Visible range of the last prefetch
+    protected int prefetchFirst = NO_POSITION;
+    protected int prefetchLast = NO_POSITION;
+
+    // Last seen version
+    protected ChangeLogTracker tracker;
+
+    // The rows of the versions up to this versionCode have not been parsed
+    protected int stopVersionCode = ChangeLogVersionIndex.NO_VERSION_CODE;
+
+    // Memory
+    protected boolean reloadWhenShown = false;
+    protected int reloadPosition = NO_POSITION;
+
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(TRIM_MEMORY_COMPLETE);
+        }
+    };
+
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
@@ -137,34 +200,131 @@ public class ChangeLogRecyclerView extends RecyclerView {
                     R.styleable.ChangeLogListView_chglib_current_version_color,
                     colorCurrentVersion);
 
+            windowSize = a.getInt(R.styleable.ChangeLogListView_chglib_window_size, windowSize);
+
+            parallelParsing = a.getBoolean(R.styleable.ChangeLogListView_chglib_parallel_parsing,
+                    parallelParsing);
+            fastParsing = a.getBoolean(R.styleable.ChangeLogListView_chglib_fast_parsing,
+                    fastParsing);
+            logFormat = a.getInt(R.styleable.ChangeLogListView_chglib_log_format, logFormat);
+            compactRows = a.getBoolean(R.styleable.ChangeLogListView_chglib_compact_rows,
+                    compactRows);
+            sinceVersionCode = a.getInt(R.styleable.ChangeLogListView_chglib_since_version_code,
+                    sinceVersionCode);
+            unseenOnly = a.getBoolean(R.styleable.ChangeLogListView_chglib_unseen_only,
+                    unseenOnly);
+            cacheMaxAge = a.getInt(R.styleable.ChangeLogListView_chglib_cache_max_age,
+                    cacheMaxAge);
+            deltaQueryParameter = a.getString(
+                    R.styleable.ChangeLogListView_chglib_delta_query_parameter);
+            deltaHeader = a.getString(R.styleable.ChangeLogListView_chglib_delta_header);
+
         } finally {
             a.recycle();
         }
     }
 
+    /**
+     * Create the parser for the changelog file
+     *
+     * @return the parser, depending on the custom attrs
+     */
+    protected BaseParser createParser() {
+        if (logFormat == Constants.logFormatJson) {
+            if (changeLogFileResourceUrl != null)
+                return new JsonParser(getContext(), changeLogFileResourceUrl);
+            return new JsonParser(getContext(), changeLogFileResourceId);
+        }
+        if (logFormat == Constants.logFormatMarkdown) {
+            if (changeLogFileResourceUrl != null)
+                return new MarkdownParser(getContext(), changeLogFileResourceUrl);
+            return new MarkdownParser(getContext(), changeLogFileResourceId);
+        }
+        if (parallelParsing && windowSize <= 0) {
+            if (changeLogFileResourceUrl != null)
+                return new ParallelXmlParser(getContext(), changeLogFileResourceUrl);
+            return new ParallelXmlParser(getContext(), changeLogFileResourceId);
+        }
+        if (fastParsing) {
+            if (changeLogFileResourceUrl != null)
+                return new FastXmlParser(getContext(), changeLogFileResourceUrl);
+            return new FastXmlParser(getContext(), changeLogFileResourceId);
+        }
+        if (changeLogFileResourceUrl != null)
+            return new XmlParser(getContext(), changeLogFileResourceUrl);
+        return new XmlParser(getContext(), changeLogFileResourceId);
+    }
+
     /**
      * Init adapter
      */
     protected void initAdapter() {
 
         try {
+            // Only the versions newer than the last seen one
+            if (unseenOnly) sinceVersionCode = getTracker().getLastSeenVersionCode();
+
             // Read and parse changelog.xml
-            XmlParser parse;
-            if (changeLogFileResourceUrl != null)
-                parse = new XmlParser(getContext(), changeLogFileResourceUrl);
-            else
-                parse = new XmlParser(getContext(), changeLogFileResourceId);
+            BaseParser parse = createParser();
+            setDeltaFetch(parse);
             ChangeLog chg = new ChangeLog();
+            List<ChangeLogRow> rows = chg.getRowList();
+
+            // Keep in memory only the versions near the visible window (xml files only)
+            if (windowSize > 0 && parse instanceof XmlParser) {
+                XmlParser xmlParse = (XmlParser) parse;
+                windowedRows = new WindowedRowList(
+                        (from, count) -> {
+                            List<List<ChangeLogRow>> versions =
+                                    xmlParse.readChangeLogVersions(offsetIndex, from, count);
+                            for (List<ChangeLogRow> version : versions) {
+                                ChangeLogMarkup.render(version);
+                            }
+                            return versions;
+                        },
+                        windowSize, AsyncWorker.getInstance().getExecutorService());
+                // The placeholder rows are bound again when their version is loaded
+                windowedRows.setOnVersionsLoadedListener((fromPosition, count) -> post(() -> {
+                    if (adapter != null) adapter.notifyItemRangeChanged(fromPosition, count);
+                }));
+                rows = windowedRows;
+                addOnScrollListener(new OnScrollListener() {
+                    @Override
+                    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                        prefetchWindow();
+                    }
+                });
+            }
 
             // Create adapter and set custom attrs
-            adapter = new ChangeLogRecyclerViewAdapter(getContext(), chg.getRows());
+            if (compactRows && windowedRows == null) {
+                // The parsed rows are packed in primitive columns
+                adapter = new ChangeLogRecyclerViewAdapter(getContext(), new CompactChangeLog());
+            } else {
+                adapter = new ChangeLogRecyclerViewAdapter(getContext(), rows);
+            }
             adapter.setRowLayoutId(rowLayoutId);
             adapter.setRowHeaderLayoutId(rowHeaderLayoutId);
             adapter.setCurrentVersionColor(colorCurrentVersion);
+            if (sinceVersionCode != ChangeLogVersionIndex.NO_VERSION_CODE
+                    && adapter.getSnapshot() != null)
+                adapter.setSinceVersionCode(sinceVersionCode);
 
             // Parse in a separate Thread to avoid UI block with large files
-            if (changeLogFileResourceUrl == null || Util.isConnected(getContext())) {
-                new ParseAsyncTask(adapter, parse).execute();
+            if (changeLogFileResourceUrl == null || Util.isConnected(getContext())
+                    || isCached(parse)) {
+                if (windowedRows != null) {
+                    new IndexAsyncTask(adapter, (XmlParser) parse).execute();
+                } else {
+                    setStopVersion(parse);
+                    ParseAsyncTask task = new ParseAsyncTask(adapter, parse);
+                    // The versions to show are known when the parse is complete
+                    task.setStreaming(adapter.getSinceVersionCode()
+                            == ChangeLogVersionIndex.NO_VERSION_CODE);
+                    // Show the cached copy of the url without waiting for the network
+                    task.setRevalidate(readCachedCopy(parse));
+                    task.execute();
+                }
             } else {
                 Toast.makeText(getContext(), R.string.changelog_internal_error_internet_connection,
                         Toast.LENGTH_LONG).show();
@@ -178,25 +338,358 @@ public class ChangeLogRecyclerView extends RecyclerView {
 
     }
 
+    /**
+     * @param parse parser of the url
+     * @return true if the cache of the parser has a copy of the url. A parser without cache
+     * has no copy.
+     */
+    private boolean isCached(BaseParser parse) {
+        ChangeLogHttpCache cache = parse.getHttpCache();
+        return cache != null && cache.isCached(changeLogFileResourceUrl);
+    }
+
+    /**
+     * Parse the cached copy of the url, if there is one, instead of waiting for the network
+     *
+     * @param parse parser
+     * @return true if the cached copy must be revalidated after the parse
+     */
+    protected boolean readCachedCopy(BaseParser parse) {
+        if (changeLogFileResourceUrl == null || !isCached(parse)) return false;
+        ChangeLogHttpCache cache = parse.getHttpCache();
+        parse.setReadFromCache(true);
+        return !cache.isFresh(changeLogFileResourceUrl, cacheMaxAge * 1000L)
+                && Util.isConnected(getContext());
+    }
+
+    /**
+     * Ask the url only for the versions newer than the cached copy, if the custom attrs set
+     * the query parameter or the header of the delta fetch
+     *
+     * @param parse parser
+     */
+    protected void setDeltaFetch(BaseParser parse) {
+        ChangeLogHttpCache cache = parse.getHttpCache();
+        if (cache == null) return;
+        cache.setDeltaQueryParameter(deltaQueryParameter);
+        cache.setDeltaHeader(deltaHeader);
+    }
+
+    /**
+     * Show only the versions newer than a versionCode
+     *
+     * @param versionCode versionCode, excluded. {@link ChangeLogVersionIndex#NO_VERSION_CODE}
+     *                    to show all versions.
+     */
+    public void setSinceVersionCode(int versionCode) {
+        sinceVersionCode = versionCode;
+        if (adapter != null && adapter.getSnapshot() != null) {
+            adapter.setSinceVersionCode(versionCode);
+            // Older versions are needed
+            if (stopVersionCode != ChangeLogVersionIndex.NO_VERSION_CODE
+                    && versionCode < stopVersionCode)
+                reload();
+        }
+    }
+
+    /**
+     * The parse stops at the versions hidden by the since filter
+     */
+    protected void setStopVersion(BaseParser parse) {
+        stopVersionCode = adapter.getSnapshot() != null
+                ? sinceVersionCode : ChangeLogVersionIndex.NO_VERSION_CODE;
+        parse.setStopAtVersionCode(stopVersionCode);
+    }
+
+    /**
+     * @return the tracker of the last version seen
+     */
+    public ChangeLogTracker getTracker() {
+        if (tracker == null) tracker = new ChangeLogTracker(getContext());
+        return tracker;
+    }
+
+    /**
+     * Mark all the versions loaded in the view as seen. The rows on screen don't change, the
+     * next load with chglib_unseen_only shows only the newer versions.
+     */
+    public void markChangeLogSeen() {
+        if (adapter != null && adapter.getSnapshot() != null)
+            getTracker().markSeen(adapter.getSnapshot());
+    }
+
+    /**
+     * Parse the changelog file again in a separate thread. The rows on screen are replaced in
+     * one step when the parse is complete.
+     */
+    public void reload() {
+        if (adapter == null || adapter.getSnapshot() == null) return;
+        BaseParser parse = createParser();
+        setDeltaFetch(parse);
+        setStopVersion(parse);
+        ParseAsyncTask task = new ParseAsyncTask(adapter, parse);
+        task.setStreaming(false);
+        task.execute();
+    }
+
     /**
      * Async Task to parse xml file in a separate thread
      */
-    protected class ParseAsyncTask extends AsyncTask<Void, Void, ChangeLog> {
+    protected class ParseAsyncTask extends AsyncTask<Void, List<ChangeLogRow>, ChangeLogSnapshot> {
+
+        private final ChangeLogRecyclerViewAdapter adapter;
+        private final BaseParser parse;
+        private boolean streaming = true;
+        private boolean streamed = false;
+        private boolean revalidate = false;
+
+        public ParseAsyncTask(ChangeLogRecyclerViewAdapter adapter, BaseParser parse) {
+            this.adapter = adapter;
+            this.parse = parse;
+        }
+
+        /**
+         * @param streaming true to show each version as soon as it is parsed, false to replace
+         *                  the rows only when the parse is complete
+         */
+        public void setStreaming(boolean streaming) {
+            this.streaming = streaming;
+        }
+
+        /**
+         * @param revalidate true to check for a newer file, when the cached copy is shown
+         */
+        public void setRevalidate(boolean revalidate) {
+            this.revalidate = revalidate;
+        }
+
+        @Override
+        protected ChangeLogSnapshot doInBackground(Void params) {
+
+            try {
+                if (parse != null) {
+                    // Compact rows don't keep the rendered text, so they are rendered on bind
+                    boolean render = !adapter.isCompact();
+                    // The rows are rendered before they are published: the main thread can
+                    // bind the streamed rows while the parse goes on
+                    int[] streamedRows = new int[1];
+                    if (streaming) {
+                        // Show each version as soon as it is parsed
+                        parse.setOnRowsParsedListener(rows -> {
+                            if (render) ChangeLogMarkup.render(rows);
+                            streamedRows[0] += rows.size();
+                            publishProgress(rows);
+                        });
+                    }
+                    ChangeLogSnapshot snapshot = parse.readChangeLogSnapshot();
+                    if (render) {
+                        List<ChangeLogRow> rows = snapshot.getRows();
+                        ChangeLogMarkup.render(
+                                rows.subList(Math.min(streamedRows[0], rows.size()), rows.size()));
+                    }
+                    // Ready for the filters
+                    snapshot.getTypeIndex();
+                    snapshot.getVersionIndex();
+                    return snapshot;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, getResources().getString(R.string.changelog_internal_error_parsing), e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgress(List<ChangeLogRow> rows) {
+            // Append the rows parsed so far
+            streamed = true;
+            adapter.add(rows);
+        }
+
+        protected void onPostExecute(ChangeLogSnapshot snapshot) {
+
+            if (snapshot != null && adapter.getSnapshot() != null) {
+                // Swap all rows at once. Streamed rows are the same, only the index is new.
+                adapter.setSnapshot(snapshot);
+            } else if (snapshot != null && !streamed) {
+                adapter.add(snapshot.getRows());
+            }
+            if (adapter.isCompact()) adapter.getCompactItems().trimToSize();
+
+            // Back to the rows shown before the memory was released
+            if (reloadPosition != NO_POSITION) {
+                if (reloadPosition < adapter.getItemCount()) scrollToPosition(reloadPosition);
+                reloadPosition = NO_POSITION;
+            }
+
+            if (revalidate) new RevalidateAsyncTask(adapter, parse).execute();
+        }
+
+        @Override
+        protected void onBackgroundError(Exception e) {
+            Log.e(TAG, getResources().getString(R.string.changelog_internal_error_parsing), e);
+        }
+    }
+
+    /**
+     * Async Task to check for a newer file of the url, while the cached copy is shown. Only the
+     * rows which changed are updated.
+     */
+    protected class RevalidateAsyncTask extends AsyncTask<Void, Void, Object> {
+
+        private final ChangeLogRecyclerViewAdapter adapter;
+        private final BaseParser parse;
+
+        /**
+         * @param adapter adapter with the rows of the cached copy
+         * @param parse   parser of the cached copy
+         */
+        public RevalidateAsyncTask(ChangeLogRecyclerViewAdapter adapter, BaseParser parse) {
+            this.adapter = adapter;
+            this.parse = parse;
+        }
+
+        @Override
+        protected Object doInBackground(Void params) {
+
+            try {
+                if (!parse.getHttpCache().revalidate(changeLogFileResourceUrl)) return null;
+
+                // The new file is in the cache
+                parse.setOnRowsParsedListener(null);
+                parse.setReadFromCache(true);
+                if (adapter.isCompact()) {
+                    return CompactChangeLog.from(parse.readChangeLogFile());
+                }
+                ChangeLogSnapshot snapshot = parse.readChangeLogSnapshot();
+                ChangeLogMarkup.render(snapshot.getRows());
+                return adapter.diffSnapshot(snapshot);
+            } catch (Exception e) {
+                Log.e(TAG, getResources().getString(R.string.changelog_internal_error_parsing), e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Object result) {
+            // The view can have a new adapter in the meantime
+            if (result == null || adapter != ChangeLogRecyclerView.this.adapter) return;
+
+            if (result instanceof ChangeLogRecyclerViewAdapter.SnapshotUpdate) {
+                adapter.applyUpdate((ChangeLogRecyclerViewAdapter.SnapshotUpdate) result);
+            } else {
+                // Compact rows can only be appended
+                ChangeLogRecyclerView.this.adapter = new ChangeLogRecyclerViewAdapter(
+                        getContext(), (CompactChangeLog) result);
+                ChangeLogRecyclerView.this.adapter.setRowLayoutId(rowLayoutId);
+                ChangeLogRecyclerView.this.adapter.setRowHeaderLayoutId(rowHeaderLayoutId);
+                ChangeLogRecyclerView.this.adapter.setCurrentVersionColor(colorCurrentVersion);
+                swapAdapter(ChangeLogRecyclerView.this.adapter, false);
+            }
+        }
+
+        @Override
+        protected void onBackgroundError(Exception e) {
+            Log.e(TAG, getResources().getString(R.string.changelog_internal_error_parsing), e);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Memory
+    //--------------------------------------------------------------------------
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getContext().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Release memory, depending on the level of {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * See {@link ChangeLogRecyclerViewAdapter#trimMemory(int)}. With
+     * {@link ComponentCallbacks2#TRIM_MEMORY_COMPLETE} the rows of a local file are dropped,
+     * and parsed again when the view is shown.
+     *
+     * @param level trim level
+     */
+    public void trimMemory(int level) {
+        if (adapter == null || reloadWhenShown) return;
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE && changeLogFileResourceUrl == null) {
+            int position = NO_POSITION;
+            if (getLayoutManager() instanceof LinearLayoutManager)
+                position = ((LinearLayoutManager) getLayoutManager())
+                        .findFirstVisibleItemPosition();
+            if (adapter.dropRows()) {
+                reloadPosition = position;
+                reloadWhenShown = true;
+                return;
+            }
+        }
+        adapter.trimMemory(level);
+        // The released versions are prefetched again
+        prefetchFirst = NO_POSITION;
+        prefetchLast = NO_POSITION;
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == VISIBLE && reloadWhenShown) {
+            reloadWhenShown = false;
+            reload();
+        }
+    }
+
+    /**
+     * Load in background the versions around the visible window
+     */
+    protected void prefetchWindow() {
+        if (windowedRows == null || !(getLayoutManager() instanceof LinearLayoutManager)) return;
+
+        LinearLayoutManager layoutManager = (LinearLayoutManager) getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == NO_POSITION || last == NO_POSITION) return;
+        // Scroll events come for each pixel, the window changes only with the visible rows
+        if (first == prefetchFirst && last == prefetchLast) return;
+        prefetchFirst = first;
+        prefetchLast = last;
+
+        // One screen above and one below
+        int margin = last - first + 1;
+        if (windowedRows.isPrefetched(first - margin, last + margin)) return;
+        AsyncWorker.getInstance().getExecutorService().execute(
+                () -> windowedRows.prefetch(first - margin, last + margin));
+    }
+
+    /**
+     * Async Task to build the offset index in a separate thread
+     */
+    protected class IndexAsyncTask extends AsyncTask<Void, Void, ChangeLogOffsetIndex> {
 
         private final ChangeLogRecyclerViewAdapter adapter;
         private final XmlParser parse;
 
-        public ParseAsyncTask(ChangeLogRecyclerViewAdapter adapter, XmlParser parse) {
+        public IndexAsyncTask(ChangeLogRecyclerViewAdapter adapter, XmlParser parse) {
             this.adapter = adapter;
             this.parse = parse;
         }
 
         @Override
-        protected ChangeLog doInBackground(Void params) {
+        protected ChangeLogOffsetIndex doInBackground(Void params) {
 
             try {
                 if (parse != null) {
-                    return parse.readChangeLogFile();
+                    ChangeLogOffsetIndex index = parse.readChangeLogIndex();
+                    // The windows are read from the same copy of the url
+                    if (parse.getHttpCache() != null) parse.setReadFromCache(true);
+                    return index;
                 }
             } catch (Exception e) {
                 Log.e(TAG, getResources().getString(R.string.changelog_internal_error_parsing), e);
@@ -204,11 +697,15 @@ public class ChangeLogRecyclerView extends RecyclerView {
             return null;
         }
 
-        protected void onPostExecute(ChangeLog chg) {
+        protected void onPostExecute(ChangeLogOffsetIndex index) {
 
             // Notify data changed
-            if (chg != null) {
-                adapter.add(chg.getRows());
+            if (index != null) {
+                offsetIndex = index;
+                windowedRows.setRowCounts(index.getRowCounts());
+                prefetchFirst = NO_POSITION;
+                prefetchLast = NO_POSITION;
+                adapter.notifyDataSetChanged();
             }
         }
 
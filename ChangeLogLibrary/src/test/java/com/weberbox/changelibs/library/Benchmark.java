@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library;
+
+import org.junit.Assume;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Harness of the timing measurements of the tests.
+ * <p>
+ * Timings depend on the machine, so they run only with
+ * {@code ./gradlew test -Pchangelog.benchmark}. A normal test run checks only the results of
+ * the measured code. Each benchmark writes its numbers to build/reports/benchmarks.
+ *
+ * @author James Weber
+ */
+public final class Benchmark {
+
+    /**
+     * System property which enables the benchmarks
+     */
+    public static final String ENABLED_PROPERTY = "changelog.benchmark";
+
+    /**
+     * System property with the directory of the reports
+     */
+    public static final String DIRECTORY_PROPERTY = "changelog.benchmark.dir";
+
+    private Benchmark() {
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Skip the calling test unless the benchmarks are enabled
+     */
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Run with -P" + ENABLED_PROPERTY, Boolean.getBoolean(ENABLED_PROPERTY));
+    }
+
+    /**
+     * Run a body for some warmup rounds, then keep the best of the measured rounds.
+     *
+     * @param warmupRounds rounds not measured
+     * @param rounds       measured rounds
+     * @param operations   operations done by one run of the body
+     * @param body         measured code
+     * @return the time and the bytes allocated per operation
+     * @throws Exception exception of the body
+     */
+    public static Result measure(int warmupRounds, int rounds, int operations, Body body)
+            throws Exception {
+        for (int round = 0; round < warmupRounds; round++) {
+            body.run();
+        }
+        long bestNanos = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            body.run();
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            bestBytes = Math.min(bestBytes, allocatedBytes() - allocatedBefore);
+        }
+        return new Result((double) bestNanos / operations,
+                allocatedBytes() < 0 ? -1 : (double) bestBytes / operations);
+    }
+
+    /**
+     * Write the lines of a benchmark to its report, build/reports/benchmarks/name.txt
+     *
+     * @param name  name of the benchmark
+     * @param lines lines of the report
+     * @throws IOException exception
+     */
+    public static void report(String name, List<String> lines) throws IOException {
+        File directory = new File(System.getProperty(DIRECTORY_PROPERTY,
+                "build/reports/benchmarks"));
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(directory,
+                name + ".txt")), StandardCharsets.UTF_8);
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the current thread, or -1 if the jvm can't measure them
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) return -1;
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Measured code
+     */
+    public interface Body {
+        void run() throws Exception;
+    }
+
+    /**
+     * Best time and allocation of the measured rounds
+     */
+    public static final class Result {
+
+        private final double nanosPerOperation;
+        private final double bytesPerOperation;
+
+        Result(double nanosPerOperation, double bytesPerOperation) {
+            this.nanosPerOperation = nanosPerOperation;
+            this.bytesPerOperation = bytesPerOperation;
+        }
+
+        public double getNanosPerOperation() {
+            return nanosPerOperation;
+        }
+
+        /**
+         * @return the bytes allocated, or -1 if the jvm can't measure them
+         */
+        public double getBytesPerOperation() {
+            return bytesPerOperation;
+        }
+
+        /**
+         * @param name name of the measured code
+         * @return a line of the report
+         */
+        public String format(String name) {
+            return String.format(Locale.US, "%-20s %12.1f ns/op %12.1f bytes/op", name,
+                    nanosPerOperation, bytesPerOperation);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link ChangeLogHttpCache} against a local http server.
+ *
+ * @author James Weber
+ */
+public class ChangeLogHttpCacheTest {
+
+    private static final String BODY_V1 =
+            "<changelog><changelogversion versionName=\"1.0\"/></changelog>";
+    private static final String BODY_V2 =
+            "<changelog><changelogversion versionName=\"2.0\"/></changelog>";
+    private static final String LAST_MODIFIED = "Sun, 10 Oct 2021 10:00:00 GMT";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String url;
+    private ChangeLogHttpCache cache;
+
+    // Response of the server
+    private volatile int status = 200;
+    private volatile String body = BODY_V1;
+    private volatile String etag = "\"v1\"";
+    // Response to a delta fetch, null to send the whole file
+    private volatile String deltaBody;
+
+    // Last request
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String ifNoneMatch;
+    private volatile String ifModifiedSince;
+    private volatile String query;
+
+    //-----------------------------------------------------------------------
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/changelog.xml", this::handle);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/changelog.xml";
+        cache = newCache(folder.newFolder("cache"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    //-----------------------------------------------------------------------
+
+    @Test
+    public void notModified() throws IOException {
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+        assertNull(ifNoneMatch);
+        assertTrue(cache.isCached(url));
+
+        assertFalse(cache.revalidate(url));
+        assertEquals(2, requests.get());
+        assertEquals("\"v1\"", ifNoneMatch);
+        assertEquals(LAST_MODIFIED, ifModifiedSince);
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+    }
+
+    @Test
+    public void changedEtag() throws IOException {
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+
+        body = BODY_V2;
+        etag = "\"v2\"";
+        assertTrue(cache.revalidate(url));
+        assertEquals("\"v1\"", ifNoneMatch);
+        assertEquals(BODY_V2, read(cache.open(url, false)));
+
+        // The new ETag is sent with the next request
+        assertFalse(cache.revalidate(url));
+        assertEquals("\"v2\"", ifNoneMatch);
+    }
+
+    @Test
+    public void serverError() throws IOException {
+        status = 500;
+        try {
+            cache.open(url, true);
+            fail("Expected an IOException without a cached copy");
+        } catch (IOException expected) {
+            assertFalse(cache.isCached(url));
+        }
+
+        status = 200;
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+        status = 500;
+        body = BODY_V2;
+        try {
+            cache.revalidate(url);
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            // The cached copy is kept
+        }
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+    }
+
+    @Test
+    public void serverDown() throws IOException {
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+        server.stop(0);
+
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+        try {
+            newCache(folder.newFolder("empty")).open(url, true);
+            fail("Expected an IOException without a cached copy");
+        } catch (IOException expected) {
+            // No copy to read
+        }
+    }
+
+    @Test
+    public void offline() throws IOException {
+        assertNull(cache.open(url, false));
+        assertEquals(0, requests.get());
+
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+        body = BODY_V2;
+        assertEquals(BODY_V1, read(cache.open(url, false)));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void evictedBody() throws IOException {
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+        assertTrue(cache.getBodyFile(url).delete());
+        assertFalse(cache.isCached(url));
+
+        // Without the body the headers are not sent
+        body = BODY_V2;
+        assertEquals(BODY_V2, read(cache.open(url, true)));
+        assertNull(ifNoneMatch);
+        assertTrue(cache.isCached(url));
+    }
+
+    @Test
+    public void bodyEvictedDuringRevalidation() throws IOException {
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+
+        // The body is deleted while the server answers 304
+        ChangeLogTransport transport = cache.getTransport();
+        cache.setTransport((requestUrl, headers) -> {
+            ChangeLogTransport.Response response = transport.get(requestUrl, headers);
+            cache.getBodyFile(url).delete();
+            return response;
+        });
+        assertTrue(cache.revalidate(url));
+        // The 304 is followed by a request which is not conditional
+        assertEquals(3, requests.get());
+        assertNull(ifNoneMatch);
+        assertEquals(BODY_V1, read(cache.open(url, false)));
+    }
+
+    @Test
+    public void responsesAreClosedOnce() throws IOException {
+        assertEquals(BODY_V1, read(cache.open(url, true)));
+
+        // The 304 is followed by another request, after the body is deleted
+        ChangeLogTransport transport = cache.getTransport();
+        List<AtomicInteger> closes = new ArrayList<>();
+        cache.setTransport((requestUrl, headers) -> {
+            ChangeLogTransport.Response response = transport.get(requestUrl, headers);
+            cache.getBodyFile(url).delete();
+            AtomicInteger count = new AtomicInteger();
+            closes.add(count);
+            return new ChangeLogTransport.Response() {
+                @Override
+                public int getCode() {
+                    return response.getCode();
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return response.getHeader(name);
+                }
+
+                @Override
+                public InputStream getBody() throws IOException {
+                    return response.getBody();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    count.incrementAndGet();
+                    response.close();
+                }
+            };
+        });
+        assertTrue(cache.revalidate(url));
+        assertEquals(2, closes.size());
+        assertEquals(1, closes.get(0).get());
+        assertEquals(1, closes.get(1).get());
+    }
+
+    @Test
+    public void deltaValidatorsAreNotStored() throws IOException {
+        cache.setDeltaMerger(new LineMerger());
+        cache.setDeltaQueryParameter("since");
+        body = "2\n1\n";
+        assertEquals("2\n1\n", read(cache.open(url, true)));
+        assertNull(query);
+
+        body = "3\n2\n1\n";
+        etag = "\"v2\"";
+        deltaBody = "3\n";
+        assertTrue(cache.revalidate(url));
+        assertEquals("since=2", query);
+        assertEquals("\"v1\"", ifNoneMatch);
+        assertEquals("3\n2\n1\n", read(cache.open(url, false)));
+
+        // The ETag of the delta is not sent back
+        deltaBody = "";
+        cache.revalidate(url);
+        assertEquals("since=3", query);
+        assertNull(ifNoneMatch);
+        assertNull(ifModifiedSince);
+    }
+
+    @Test
+    public void clear() throws IOException {
+        String otherUrl = url + "?lang=it";
+        read(cache.open(url, true));
+        read(cache.open(otherUrl, true));
+        assertTrue(cache.isCached(url));
+        assertTrue(cache.isCached(otherUrl));
+
+        cache.clear();
+        assertFalse(cache.isCached(url));
+        assertFalse(cache.isCached(otherUrl));
+        File[] files = cache.getDirectory().listFiles();
+        assertEquals(0, files == null ? 0 : files.length);
+
+        // The next request is not conditional
+        read(cache.open(url, true));
+        assertNull(ifNoneMatch);
+    }
+
+    //-----------------------------------------------------------------------
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        query = exchange.getRequestURI().getQuery();
+
+        String currentEtag = etag;
+        if (status == 200 && currentEtag.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        boolean delta = query != null && query.startsWith("since=") && deltaBody != null;
+        String response = status != 200 ? "error" : delta ? deltaBody : body;
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        if (status == 200) {
+            exchange.getResponseHeaders().set("ETag", delta ? "\"delta\"" : currentEtag);
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private static ChangeLogHttpCache newCache(File directory) {
+        HttpChangeLogTransport transport = new HttpChangeLogTransport();
+        transport.setMaxRetries(0);
+        transport.setConnectTimeout(2000);
+        transport.setReadTimeout(2000);
+        ChangeLogHttpCache cache = new ChangeLogHttpCache(directory);
+        cache.setTransport(transport);
+        return cache;
+    }
+
+    /**
+     * Merger of files with a versionCode per line, newest first
+     */
+    private static class LineMerger implements ChangeLogHttpCache.DeltaMerger {
+
+        @Override
+        public int readNewestVersionCode(InputStream cached) throws IOException {
+            String first = read(cached).split("\n")[0];
+            return Integer.parseInt(first.trim());
+        }
+
+        @Override
+        public boolean merge(InputStream cached, InputStream delta, int sinceVersionCode,
+                             OutputStream out) throws IOException {
+            String newer = read(delta);
+            for (String line : newer.split("\n")) {
+                if (!line.isEmpty() && Integer.parseInt(line) <= sinceVersionCode) return false;
+            }
+            out.write(newer.getBytes(StandardCharsets.UTF_8));
+            out.write(read(cached).getBytes(StandardCharsets.UTF_8));
+            return true;
+        }
+    }
+
+    private static String read(InputStream is) throws IOException {
+        assertTrue(is != null);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            is.close();
+        }
+    }
+}
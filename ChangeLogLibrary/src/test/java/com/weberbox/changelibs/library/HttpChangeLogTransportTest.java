@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.weberbox.changelibs.library.parser.BaseParser;
+import com.weberbox.changelibs.library.parser.XmlParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link HttpChangeLogTransport} against a local http server.
+ *
+ * @author James Weber
+ */
+public class HttpChangeLogTransportTest {
+
+    private static final String BODY =
+            "<changelog><changelogversion versionName=\"1.0\"/></changelog>";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private String url;
+    private HttpChangeLogTransport transport;
+
+    // Status of each request, then 200
+    private volatile int[] statuses = {};
+    // Delay of the first request, in milliseconds
+    private volatile int firstDelay;
+
+    private final List<Long> requestTimes = new CopyOnWriteArrayList<>();
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+
+    //-----------------------------------------------------------------------
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/changelog.xml", this::handle);
+        // A slow request must not delay the next one
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/changelog.xml";
+
+        transport = new HttpChangeLogTransport();
+        transport.setConnectTimeout(2000);
+        transport.setReadTimeout(2000);
+        transport.setRetryDelay(100, 150);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+        BaseParser.setDefaultTransport(null);
+    }
+
+    //-----------------------------------------------------------------------
+
+    @Test
+    public void retryServerErrors() throws IOException {
+        statuses = new int[]{503, 500};
+        ChangeLogTransport.Response response = transport.get(url, null);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals(BODY, read(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals(3, requestTimes.size());
+    }
+
+    @Test
+    public void lastAttemptIsReturned() throws IOException {
+        statuses = new int[]{503, 503, 503, 503};
+        transport.setMaxRetries(1);
+        ChangeLogTransport.Response response = transport.get(url, null);
+        try {
+            assertEquals(503, response.getCode());
+        } finally {
+            response.close();
+        }
+        assertEquals(2, requestTimes.size());
+    }
+
+    @Test
+    public void backoff() throws IOException {
+        statuses = new int[]{503, 503, 503};
+        transport.setMaxRetries(3);
+        transport.get(url, null).close();
+
+        assertEquals(4, requestTimes.size());
+        // 100 ms, doubled up to 150 ms
+        long[] delays = {100, 150, 150};
+        for (int i = 0; i < delays.length; i++) {
+            long gap = requestTimes.get(i + 1) - requestTimes.get(i);
+            assertTrue("Backoff " + i + " was " + gap + " ms", gap >= delays[i] - 10);
+        }
+    }
+
+    @Test
+    public void notFoundIsNotRetried() throws IOException {
+        statuses = new int[]{404};
+        ChangeLogTransport.Response response = transport.get(url, null);
+        try {
+            assertEquals(404, response.getCode());
+            assertEquals("error", read(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals(1, requestTimes.size());
+    }
+
+    @Test
+    public void readTimeout() throws IOException {
+        firstDelay = 1000;
+        transport.setReadTimeout(200);
+        transport.setMaxRetries(0);
+        try {
+            transport.get(url, null).close();
+            fail("Expected a SocketTimeoutException");
+        } catch (SocketTimeoutException expected) {
+            assertEquals(1, requestTimes.size());
+        }
+    }
+
+    @Test
+    public void readTimeoutIsRetried() throws IOException {
+        firstDelay = 1000;
+        transport.setReadTimeout(200);
+        ChangeLogTransport.Response response = transport.get(url, null);
+        try {
+            assertEquals(200, response.getCode());
+        } finally {
+            response.close();
+        }
+        assertEquals(2, requestTimes.size());
+    }
+
+    @Test
+    public void connectionIsReused() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            ChangeLogTransport.Response response = transport.get(url, null);
+            read(response.getBody());
+            response.close();
+            // A second close must not disconnect
+            response.close();
+        }
+        assertEquals(3, clientPorts.size());
+        assertEquals(clientPorts.get(0), clientPorts.get(1));
+        assertEquals(clientPorts.get(0), clientPorts.get(2));
+    }
+
+    @Test
+    public void injectedTransport() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        ChangeLogTransport loopback = (requestUrl, headers) -> {
+            requests.incrementAndGet();
+            return transport.get(requestUrl, headers);
+        };
+
+        // The default transport of the new parsers
+        BaseParser.setDefaultTransport(loopback);
+        XmlParser parser = new XmlParser(null, url);
+        ChangeLogHttpCache cache = new ChangeLogHttpCache(folder.newFolder("cache"));
+        parser.setHttpCache(cache);
+        assertSame(loopback, cache.getTransport());
+
+        assertEquals(BODY, read(cache.open(url, true)));
+        assertEquals(1, requests.get());
+        assertEquals(1, requestTimes.size());
+
+        // The transport of a parser
+        AtomicInteger parserRequests = new AtomicInteger();
+        parser.setTransport((requestUrl, headers) -> {
+            parserRequests.incrementAndGet();
+            return transport.get(requestUrl, headers);
+        });
+        cache.revalidate(url);
+        assertEquals(1, requests.get());
+        assertEquals(1, parserRequests.get());
+    }
+
+    //-----------------------------------------------------------------------
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int request = requestTimes.size();
+        requestTimes.add(System.nanoTime() / 1000000);
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        if (request == 0 && firstDelay > 0) {
+            try {
+                Thread.sleep(firstDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int[] current = statuses;
+        int status = request < current.length ? current[request] : 200;
+        byte[] bytes = (status == 200 ? BODY : "error").getBytes(StandardCharsets.UTF_8);
+        try {
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        } catch (IOException e) {
+            // The client gave up after a timeout
+            exchange.close();
+        }
+    }
+
+    private static String read(InputStream is) throws IOException {
+        assertTrue(is != null);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            is.close();
+        }
+    }
+}
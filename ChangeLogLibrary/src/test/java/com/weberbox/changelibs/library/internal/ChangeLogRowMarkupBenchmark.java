@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.internal;
+
+import com.weberbox.changelibs.library.Benchmark;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Comparison of {@link ChangeLogRow#parseChangeText(String)} with the two String.replaceAll
+ * calls it replaced, per parsed row.
+ * <p>
+ * Both must give the same text, and the converter must not copy the texts without brackets.
+ * With {@code -Pchangelog.benchmark} the time and the bytes allocated per row are measured
+ * too, see {@link Benchmark}.
+ *
+ * @author James Weber
+ */
+public class ChangeLogRowMarkupBenchmark {
+
+    private static final int ROWS = 20000;
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 10;
+
+    private static final String[] TEXTS = {
+            "Fixed a couple crashes",
+            "Updated translations",
+            "[b]New![/b] Add new attrs to customize header and row layout",
+            "Fixed log while [i]parsing[/i]",
+            "Fixed a [a href=\"http://www.google.it\"]number[/a] of bugs with the Gmail and SMS "
+                    + "extensions",
+            "Improved the performance of the list with thousands of rows",
+            "[b][font color=\"#FF0000\"]New![/font][/b] Translations for Greek, Dutch and "
+                    + "Brazilian Portuguese",
+            "Removed the old settings screen"
+    };
+
+    private final ChangeLogRow[] rows = new ChangeLogRow[ROWS];
+    private final String[] texts = new String[ROWS];
+
+    //-----------------------------------------------------------------------
+
+    @Test
+    public void sameText() {
+        createRows();
+        runParseChangeText();
+
+        for (int i = 0; i < ROWS; i++) {
+            String text = texts[i];
+            String converted = rows[i].getChangeText();
+            assertEquals(replaceAll(text), converted);
+            if (text.indexOf('[') < 0 && text.indexOf(']') < 0) assertSame(text, converted);
+            else assertNotSame(text, converted);
+        }
+        assertEquals("<b>x<", ChangeLogRow.convertMarkup("[b]x["));
+        assertEquals("", ChangeLogRow.convertMarkup(""));
+        assertNull(ChangeLogRow.convertMarkup(null));
+    }
+
+    @Test
+    public void savings() throws Exception {
+        Benchmark.assumeEnabled();
+        createRows();
+
+        Benchmark.Result regex = Benchmark.measure(WARMUP_ROUNDS, ROUNDS, ROWS,
+                this::runReplaceAll);
+        Benchmark.Result current = Benchmark.measure(WARMUP_ROUNDS, ROUNDS, ROWS,
+                this::runParseChangeText);
+
+        Benchmark.report("ChangeLogRowMarkup", Arrays.asList(
+                String.format(Locale.US, "%d rows, %d texts", ROWS, TEXTS.length),
+                regex.format("replaceAll"),
+                current.format("parseChangeText")));
+        assertTrue(current.getNanosPerOperation() < regex.getNanosPerOperation());
+        if (current.getBytesPerOperation() >= 0)
+            assertTrue(current.getBytesPerOperation() < regex.getBytesPerOperation());
+    }
+
+    //-----------------------------------------------------------------------
+
+    private void createRows() {
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new ChangeLogRow();
+            // Each row has its own copy of the text, like after the xml parsing
+            texts[i] = new String(TEXTS[i % TEXTS.length].toCharArray());
+        }
+    }
+
+    private void runReplaceAll() {
+        for (int i = 0; i < ROWS; i++) {
+            rows[i].setChangeText(replaceAll(texts[i]));
+        }
+    }
+
+    private void runParseChangeText() {
+        for (int i = 0; i < ROWS; i++) {
+            rows[i].parseChangeText(texts[i]);
+        }
+    }
+
+    /**
+     * The conversion before the single-pass converter
+     */
+    private static String replaceAll(String text) {
+        return text.replaceAll("\\[", "<").replaceAll("\\]", ">");
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import com.weberbox.changelibs.library.Benchmark;
+import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Comparison of {@link FastXmlParser} with {@link XmlParser} on a large changelog.
+ * <p>
+ * Both parsers must read the same rows. With {@code -Pchangelog.benchmark} the parse times
+ * are measured too, see {@link Benchmark}.
+ *
+ * @author James Weber
+ */
+public class FastXmlParserBenchmark {
+
+    private static final int VERSIONS = 3000;
+    private static final int ROWS_PER_VERSION = 6;
+
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 10;
+
+    /**
+     * Min ratio between the parse times
+     */
+    private static final double MIN_SPEEDUP = 2;
+
+    private static final String[] TEXTS = {
+            "Fixed a couple crashes",
+            "Updated translations",
+            "[b]New![/b] Add new attrs to customize header and row layout",
+            "Fixed log while [i]parsing[/i] &amp; sorting",
+            "Fixed a [a href=\"http://www.google.it\"]number[/a] of bugs with the Gmail and SMS "
+                    + "extensions",
+            "Improved the performance of the list with thousands of rows"
+    };
+
+    private static final String[] LOG_TYPES = {"fix", "new", "imp", "note", null};
+
+    private final byte[] content = createChangeLog();
+
+    //-----------------------------------------------------------------------
+
+    @Test
+    public void sameRows() throws Exception {
+        List<ChangeLogRow> expected = new JvmXmlParser().parse(content).getRowList();
+        JvmFastXmlParser fastParser = new JvmFastXmlParser();
+        List<ChangeLogRow> rows = fastParser.readChangeLog(content).getRowList();
+
+        // The file is read by the scanner, without the fallback
+        assertEquals(0, fastParser.pullParsers);
+
+        assertEquals(VERSIONS * (ROWS_PER_VERSION + 1), expected.size());
+        assertEquals(expected.size(), rows.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue("Row " + i + ": " + rows.get(i),
+                    expected.get(i).hasSameContent(rows.get(i)));
+        }
+    }
+
+    @Test
+    public void speedup() throws Exception {
+        Benchmark.assumeEnabled();
+
+        JvmXmlParser xmlParser = new JvmXmlParser();
+        JvmFastXmlParser fastParser = new JvmFastXmlParser();
+        Benchmark.Result xml = Benchmark.measure(WARMUP_ROUNDS, ROUNDS, 1,
+                () -> xmlParser.parse(content));
+        Benchmark.Result fast = Benchmark.measure(WARMUP_ROUNDS, ROUNDS, 1,
+                () -> fastParser.readChangeLog(content));
+
+        double speedup = xml.getNanosPerOperation() / fast.getNanosPerOperation();
+        Benchmark.report("FastXmlParser", Arrays.asList(
+                String.format(Locale.US, "%d versions, %d KB", VERSIONS, content.length / 1024),
+                xml.format("XmlParser"),
+                fast.format("FastXmlParser"),
+                String.format(Locale.US, "speedup: %.1fx", speedup)));
+        assertTrue("Speedup " + speedup, speedup >= MIN_SPEEDUP);
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Versions newest first, with the common attributes and markup
+     */
+    private static byte[] createChangeLog() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        xml.append("<!-- Benchmark changelog -->\n");
+        xml.append("<changelog bulletedList=\"true\">\n");
+        for (int version = VERSIONS; version > 0; version--) {
+            xml.append("  <changelogversion versionName=\"1.").append(version)
+                    .append("\" versionCode=\"").append(version)
+                    .append("\" changeDate=\"Oct ").append(version % 28 + 1).append(", 2021\"");
+            if (version == VERSIONS) xml.append(" currentVersion=\"true\"");
+            xml.append(">\n");
+            for (int row = 0; row < ROWS_PER_VERSION; row++) {
+                String logType = LOG_TYPES[(version + row) % LOG_TYPES.length];
+                xml.append("    <changelogtext");
+                if (logType != null) xml.append(" logType=\"").append(logType).append('"');
+                if (row == ROWS_PER_VERSION - 1) xml.append(" bulletedList=\"false\"");
+                xml.append('>').append(TEXTS[(version + row) % TEXTS.length])
+                        .append("</changelogtext>\n");
+            }
+            xml.append("  </changelogversion>\n");
+        }
+        xml.append("</changelog>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * XmlParser with KXmlParser, the pull parser of the platform
+     */
+    private static class JvmXmlParser extends XmlParser {
+
+        JvmXmlParser() {
+            super(null);
+        }
+
+        ChangeLog parse(byte[] content) throws Exception {
+            return readChangeLog(new ByteArrayInputStream(content), null);
+        }
+
+        @Override
+        protected XmlPullParser newPullParser() {
+            return new KXmlParser();
+        }
+    }
+
+    /**
+     * FastXmlParser with KXmlParser for its fallback
+     */
+    private static class JvmFastXmlParser extends FastXmlParser {
+
+        // Pull parsers created by the fallback
+        int pullParsers;
+
+        JvmFastXmlParser() {
+            super(null);
+        }
+
+        @Override
+        protected XmlPullParser newPullParser() {
+            pullParsers++;
+            return new KXmlParser();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import com.weberbox.changelibs.library.Benchmark;
+import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Measurement of the strings shared by the parser.
+ * <p>
+ * A large changelog, where most entries repeat a few common texts, is parsed by
+ * {@link FastXmlParser} with and without the string pool. The rows must refer to less string
+ * instances and characters with the pool, and the pool must be released after the parse.
+ * With {@code -Pchangelog.benchmark} the heap retained by the rows is measured too, see
+ * {@link Benchmark}.
+ *
+ * @author James Weber
+ */
+public class StringDedupBenchmark {
+
+    private static final int VERSIONS = 2000;
+    private static final int ROWS_PER_VERSION = 7;
+
+    private static final String[] COMMON_TEXTS = {
+            "Fixed a couple crashes",
+            "Updated translations",
+            "Performance improvements",
+            "[b]New![/b] Bug fixes and stability improvements"
+    };
+
+    private final byte[] content = createChangeLog();
+
+    // Keeps the parsed changelog reachable while the heap is measured
+    private ChangeLog retained;
+
+    //-----------------------------------------------------------------------
+
+    @Test
+    public void dedup() throws Exception {
+        JvmFastXmlParser parser = new JvmFastXmlParser();
+        ChangeLog shared = parser.readChangeLog(content);
+        ChangeLog copied = new NoDedupParser().readChangeLog(content);
+
+        assertEquals(VERSIONS * (ROWS_PER_VERSION + 1), shared.getRowCount());
+        assertEquals(shared.getRowCount(), copied.getRowCount());
+        for (int i = 0; i < shared.getRowCount(); i++) {
+            assertTrue(shared.getRowList().get(i).hasSameContent(copied.getRowList().get(i)));
+        }
+
+        Map<String, Boolean> sharedStrings = distinctStrings(shared);
+        Map<String, Boolean> copiedStrings = distinctStrings(copied);
+        assertTrue(sharedStrings.size() < copiedStrings.size() / 2);
+        assertTrue(countChars(sharedStrings) < countChars(copiedStrings) / 2);
+
+        assertPoolReleased(parser);
+    }
+
+    @Test
+    public void poolReleasedOnError() throws Exception {
+        // Truncated file: the scanner and the pull parser of the fallback both fail
+        byte[] truncated = Arrays.copyOf(content, content.length / 2);
+        JvmFastXmlParser xmlParser = new JvmFastXmlParser();
+        try {
+            xmlParser.readChangeLog(truncated);
+            fail();
+        } catch (Exception e) {
+            // expected
+        }
+        assertPoolReleased(xmlParser);
+
+        MarkdownParser markdownParser = new MarkdownParser(null, 0);
+        try {
+            markdownParser.readChangeLog(new FailingReader("## [1.1] - 2021-10-02\n- Fixed\n"));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertPoolReleased(markdownParser);
+    }
+
+    @Test
+    public void heap() throws Exception {
+        Benchmark.assumeEnabled();
+
+        long sharedBytes = measure(new JvmFastXmlParser());
+        int sharedStrings = distinctStrings(retained).size();
+        retained = null;
+
+        long copiedBytes = measure(new NoDedupParser());
+        int copiedStrings = distinctStrings(retained).size();
+        retained = null;
+
+        Benchmark.report("StringDedup", Arrays.asList(
+                String.format(Locale.US, "%d rows", VERSIONS * (ROWS_PER_VERSION + 1)),
+                String.format(Locale.US, "without dedup: %6d KB %6d string instances",
+                        copiedBytes / 1024, copiedStrings),
+                String.format(Locale.US, "with dedup:    %6d KB %6d string instances",
+                        sharedBytes / 1024, sharedStrings)));
+        assertTrue(sharedBytes < copiedBytes);
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Without a pool, equal strings are returned as they are
+     */
+    private static void assertPoolReleased(BaseParser parser) {
+        String first = new String("Updated translations".toCharArray());
+        String second = new String(first.toCharArray());
+        parser.dedup(first);
+        assertNotSame(first, parser.dedup(second));
+    }
+
+    /**
+     * @return the heap retained by the parsed changelog
+     */
+    private long measure(FastXmlParser parser) throws Exception {
+        long before = usedHeap();
+        retained = parser.readChangeLog(content);
+        return usedHeap() - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return the distinct string instances of the rows
+     */
+    private static Map<String, Boolean> distinctStrings(ChangeLog changeLog) {
+        Map<String, Boolean> strings = new IdentityHashMap<>();
+        for (ChangeLogRow row : changeLog.getRowList()) {
+            if (row.getVersionName() != null) strings.put(row.getVersionName(), true);
+            if (row.getChangeDate() != null) strings.put(row.getChangeDate(), true);
+            if (row.getChangeText() != null) strings.put(row.getChangeText(), true);
+        }
+        return strings;
+    }
+
+    /**
+     * @return the characters retained by the string instances
+     */
+    private static long countChars(Map<String, Boolean> strings) {
+        long chars = 0;
+        for (String string : strings.keySet()) {
+            chars += string.length();
+        }
+        return chars;
+    }
+
+    /**
+     * Versions newest first, where 5 of 7 entries are common texts
+     */
+    private static byte[] createChangeLog() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        xml.append("<changelog bulletedList=\"true\">\n");
+        for (int version = VERSIONS; version > 0; version--) {
+            xml.append("  <changelogversion versionName=\"1.").append(version)
+                    .append("\" versionCode=\"").append(version)
+                    .append("\" changeDate=\"Oct ").append(version % 28 + 1)
+                    .append(", 2021\">\n");
+            for (int row = 0; row < ROWS_PER_VERSION; row++) {
+                String text = row < 5 ? COMMON_TEXTS[(version + row) % COMMON_TEXTS.length]
+                        : "Change " + row + " of version " + version;
+                xml.append("    <changelogtext logType=\"fix\">").append(text)
+                        .append("</changelogtext>\n");
+            }
+            xml.append("  </changelogversion>\n");
+        }
+        xml.append("</changelog>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * FastXmlParser with KXmlParser for its fallback
+     */
+    private static class JvmFastXmlParser extends FastXmlParser {
+
+        JvmFastXmlParser() {
+            super(null);
+        }
+
+        @Override
+        protected XmlPullParser newPullParser() {
+            return new KXmlParser();
+        }
+    }
+
+    /**
+     * The baseline: every row has its own copy of the strings
+     */
+    private static class NoDedupParser extends JvmFastXmlParser {
+
+        @Override
+        protected String dedup(String value) {
+            return value;
+        }
+    }
+
+    /**
+     * Reader which fails after its text
+     */
+    private static class FailingReader extends Reader {
+
+        private final StringReader text;
+
+        FailingReader(String text) {
+            this.text = new StringReader(text);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = text.read(buffer, offset, length);
+            if (read < 0) throw new IOException("Connection reset");
+            return read;
+        }
+
+        @Override
+        public void close() {
+            text.close();
+        }
+    }
+}
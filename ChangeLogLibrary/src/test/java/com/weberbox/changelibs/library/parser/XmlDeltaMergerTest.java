@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2021 James Weber.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.weberbox.changelibs.library.parser;
+
+import com.weberbox.changelibs.library.internal.ChangeLog;
+import com.weberbox.changelibs.library.internal.ChangeLogRow;
+
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link XmlDeltaMerger} with the changelog files in the test resources.
+ * <p>
+ * The cached copy has the versions up to 1.2.0, with non ascii texts, so the splice offsets
+ * are byte offsets and not char offsets.
+ *
+ * @author James Weber
+ */
+public class XmlDeltaMergerTest {
+
+    private static final String CACHED = "changelog_cached.xml";
+    // 1.4.0, 1.3.0 and the version of the cached copy, 1.2.0
+    private static final String DELTA = "changelog_delta.xml";
+    // Only 1.3.0
+    private static final String DELTA_NEWER = "changelog_delta_newer.xml";
+    // 1.3.0 before 1.4.0
+    private static final String DELTA_UNSORTED = "changelog_delta_unsorted.xml";
+
+    private static final String TAG_VERSION = "<changelogversion";
+
+    private final XmlDeltaMerger merger = new JvmXmlDeltaMerger();
+
+    //-----------------------------------------------------------------------
+
+    @Test
+    public void readNewestVersionCode() throws Exception {
+        assertEquals(120, merger.readNewestVersionCode(open(CACHED)));
+        assertEquals(140, merger.readNewestVersionCode(open(DELTA)));
+    }
+
+    @Test
+    public void mergeDropsTheCachedVersion() throws Exception {
+        String cached = read(CACHED);
+        String delta = read(DELTA);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(merger.merge(open(CACHED), open(DELTA), 120, out));
+
+        // The versions newer than 1.2.0 go before the first version of the cached copy
+        String expected = cached.substring(0, cached.indexOf(TAG_VERSION))
+                + delta.substring(delta.indexOf(TAG_VERSION),
+                delta.indexOf(TAG_VERSION + " versionName=\"1.2.0\""))
+                + cached.substring(cached.indexOf(TAG_VERSION));
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+
+        List<ChangeLogRow> rows = parse(out.toByteArray());
+        assertEquals(Arrays.asList(140, 130, 120, 110, 100), versionCodes(rows));
+        assertEquals("Traducciones al espa\u00f1ol, \u00a1gracias!",
+                rows.get(1).getChangeText());
+        assertEquals("<b>New!</b> \u00dcbersetzungen f\u00fcr Deutsch",
+                rows.get(6).getChangeText());
+    }
+
+    @Test
+    public void mergeUpToTheChangelogEnd() throws Exception {
+        String cached = read(CACHED);
+        String delta = read(DELTA_NEWER);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(merger.merge(open(CACHED), open(DELTA_NEWER), 120, out));
+
+        // The last version of the delta ends before its changelog end tag
+        String expected = cached.substring(0, cached.indexOf(TAG_VERSION))
+                + delta.substring(delta.indexOf(TAG_VERSION), delta.lastIndexOf("</changelog"))
+                + cached.substring(cached.indexOf(TAG_VERSION));
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+
+        assertEquals(Arrays.asList(130, 120, 110, 100), versionCodes(parse(out.toByteArray())));
+    }
+
+    @Test
+    public void rejectUnsortedDelta() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            merger.merge(open(CACHED), open(DELTA_UNSORTED), 120, out);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not sorted"));
+        }
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    public void wholeFileIsNotMerged() throws Exception {
+        // A server which ignores the delta request sends the older versions too
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertFalse(merger.merge(open(DELTA), open(CACHED), 130, out));
+        assertEquals(0, out.size());
+    }
+
+    //-----------------------------------------------------------------------
+
+    private static InputStream open(String name) throws IOException {
+        InputStream is = XmlDeltaMergerTest.class.getResourceAsStream(name);
+        if (is == null) throw new IOException(name + " not found");
+        return is;
+    }
+
+    private static String read(String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream is = open(name);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) out.write(buffer, 0, read);
+        } finally {
+            is.close();
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static List<ChangeLogRow> parse(byte[] content) throws Exception {
+        ChangeLog changeLog = new JvmXmlParser().readChangeLog(
+                new ByteArrayInputStream(content), null);
+        return changeLog.getRowList();
+    }
+
+    private static List<Integer> versionCodes(List<ChangeLogRow> rows) {
+        List<Integer> versionCodes = new ArrayList<>();
+        for (ChangeLogRow row : rows) {
+            if (row.isHeader()) versionCodes.add(row.getVersionCode());
+        }
+        return versionCodes;
+    }
+
+    /**
+     * XmlDeltaMerger with KXmlParser, the pull parser of the platform
+     */
+    private static class JvmXmlDeltaMerger extends XmlDeltaMerger {
+
+        @Override
+        protected XmlPullParser newPullParser() {
+            return new KXmlParser();
+        }
+    }
+
+    /**
+     * XmlParser with KXmlParser, the pull parser of the platform
+     */
+    private static class JvmXmlParser extends XmlParser {
+
+        JvmXmlParser() {
+            super(null);
+        }
+
+        @Override
+        protected XmlPullParser newPullParser() {
+            return new KXmlParser();
+        }
+    }
+}